@@ -6,23 +6,25 @@ import error.ErrorCode;
 import error.ExpectedTokenError;
 import error.TokenizeError;
 import instruction.Instruction;
-import tokenizer.Token;
+import instruction.Opcode;
+import tokenizer.NameTable;
+import tokenizer.TokenBuffer;
 import tokenizer.TokenType;
 import tokenizer.Tokenizer;
+import util.IntMap;
 import util.Pos;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public final class Analyser {
 
     Tokenizer tokenizer;
     ArrayList<Instruction> instructions;
 
-    /** 当前偷看的 token */
-    Token peekedToken = null;
-
-    //层次
-    int layer = 0;
+    /** 整个文件的 token 序列，语法分析只在上面移动游标 */
+    TokenBuffer tokens;
 
     //是否有main函数
     boolean hasMain = false;
@@ -31,42 +33,72 @@ public final class Analyser {
         return hasMain;
     }
 
+    /** 标识符驻留表，下面的符号表都以名字的编号为键 */
+    NameTable names;
+    int startName;
+    int mainName;
+
     /** 符号表 */
-    HashMap<String, SymbolEntry> symbolTable = new HashMap<>();
+    SymbolTable symbolTable = new SymbolTable();
 
     //索引表
-    HashMap<String, Integer> funcIndex = new HashMap<>();
+    IntMap<Integer> funcIndex = new IntMap<>();
     int findex = 9;
-    HashMap<String, Integer> globaVarIndex = new HashMap<>();
-    int vindex = 0;
 
-    public HashMap<String, Integer> getFuncIndex() {
+    /** 全局变量表中已经分配的槽位数，全局变量和字符串常量共用 */
+    int globalSlots = 0;
+
+    /** 字符串常量池 */
+    StringPool stringPool = new StringPool();
+
+    public int getGlobalSlotCount() {
+        return globalSlots;
+    }
+
+    public StringPool getStringPool() {
+        return stringPool;
+    }
+
+    /** while 循环是否排成先判断一次、条件放在循环体后面的形式，见 analyseRotatedWhile */
+    boolean rotateLoops = true;
+
+    public void setRotateLoops(boolean rotateLoops) {
+        this.rotateLoops = rotateLoops;
+    }
+
+    public IntMap<Integer> getFuncIndex() {
         return funcIndex;
     }
 
-    public void setFuncIndex(HashMap<String, Integer> funcIndex) {
+    public void setFuncIndex(IntMap<Integer> funcIndex) {
         this.funcIndex = funcIndex;
     }
 
+    public NameTable getNames() {
+        return names;
+    }
+
     public void initSymbolTable(){
-        this.symbolTable.put("getint", new SymbolEntry("func", "int", new InstructionEntry[10], 0, true, true, getNextVariableOffset()));
-        funcIndex.put("getint", 0);
-        this.symbolTable.put("getdouble", new SymbolEntry("func", "double", new InstructionEntry[10], 0, true, true, getNextVariableOffset()));
-        funcIndex.put("getdouble", 1);
-        this.symbolTable.put("getchar", new SymbolEntry("func", "int", new InstructionEntry[10], 0, true, true, getNextVariableOffset()));
-        funcIndex.put("getchar", 2);
-        this.symbolTable.put("putint", new SymbolEntry("func", "void", new InstructionEntry[10], 0, true, true, getNextVariableOffset()));
-        funcIndex.put("putint", 3);
-        this.symbolTable.put("putdouble", new SymbolEntry("func", "void", new InstructionEntry[10], 0, true, true, getNextVariableOffset()));
-        funcIndex.put("putdouble", 4);
-        this.symbolTable.put("putchar", new SymbolEntry("func", "void", new InstructionEntry[10], 0, true, true, getNextVariableOffset()));
-        funcIndex.put("putchar", 5);
-        this.symbolTable.put("putstr", new SymbolEntry("func", "void", new InstructionEntry[10], 0, true, true, getNextVariableOffset()));
-        funcIndex.put("putstr", 6);
-        this.symbolTable.put("putln", new SymbolEntry("func", "void", new InstructionEntry[10], 0, true, true, getNextVariableOffset()));
-        funcIndex.put("putln", 7);
-        this.symbolTable.put("_start", new SymbolEntry("func", "void", new InstructionEntry[1000], 0, true, true, getNextVariableOffset()));
-        funcIndex.put("_start", 8);
+        startName = names.intern("_start");
+        mainName = names.intern("main");
+        this.symbolTable.declare(names.intern("getint"), new SymbolEntry("func", "int", null, 0, true, true, getNextVariableOffset()));
+        funcIndex.put(names.intern("getint"), 0);
+        this.symbolTable.declare(names.intern("getdouble"), new SymbolEntry("func", "double", null, 0, true, true, getNextVariableOffset()));
+        funcIndex.put(names.intern("getdouble"), 1);
+        this.symbolTable.declare(names.intern("getchar"), new SymbolEntry("func", "int", null, 0, true, true, getNextVariableOffset()));
+        funcIndex.put(names.intern("getchar"), 2);
+        this.symbolTable.declare(names.intern("putint"), new SymbolEntry("func", "void", null, 0, true, true, getNextVariableOffset()));
+        funcIndex.put(names.intern("putint"), 3);
+        this.symbolTable.declare(names.intern("putdouble"), new SymbolEntry("func", "void", null, 0, true, true, getNextVariableOffset()));
+        funcIndex.put(names.intern("putdouble"), 4);
+        this.symbolTable.declare(names.intern("putchar"), new SymbolEntry("func", "void", null, 0, true, true, getNextVariableOffset()));
+        funcIndex.put(names.intern("putchar"), 5);
+        this.symbolTable.declare(names.intern("putstr"), new SymbolEntry("func", "void", null, 0, true, true, getNextVariableOffset()));
+        funcIndex.put(names.intern("putstr"), 6);
+        this.symbolTable.declare(names.intern("putln"), new SymbolEntry("func", "void", null, 0, true, true, getNextVariableOffset()));
+        funcIndex.put(names.intern("putln"), 7);
+        this.symbolTable.declare(names.intern("_start"), new SymbolEntry("func", "void", new CodeBuffer(), 0, true, true, getNextVariableOffset()));
+        funcIndex.put(names.intern("_start"), 8);
     }
 
     /** 下一个变量的栈偏移 */
@@ -77,42 +109,122 @@ public final class Analyser {
         this.instructions = new ArrayList<>();
     }
 
+    public Analyser(TokenBuffer tokens) {
+        this.tokens = tokens;
+        this.instructions = new ArrayList<>();
+    }
+
+    /** 并行分析时，分析函数体的 Analyser 指向做预扫描的那个，否则为 null */
+    Analyser parent = null;
+
+    /** 函数体里的字符串常量（token 下标） -> 预扫描时分配的全局变量下标 */
+    IntMap<Integer> stringSlots;
+
+    /**
+     * 分析一个函数体的 Analyser，从 start 处的 fn 开始
+     * 和 parent 共用 token 序列和全局声明（只读），游标和局部作用域是自己的
+     */
+    private Analyser(Analyser parent, int start) {
+        this.parent = parent;
+        this.tokens = parent.tokens.fork(start);
+        this.names = parent.names;
+        this.startName = parent.startName;
+        this.mainName = parent.mainName;
+        this.symbolTable = new SymbolTable(parent.symbolTable);
+        this.funcIndex = parent.funcIndex;
+        this.stringSlots = parent.stringSlots;
+        this.rotateLoops = parent.rotateLoops;
+        this.instructions = new ArrayList<>();
+    }
+
     public List<Instruction> analyse() throws CompileError {
+        if (tokens == null) {
+            tokens = TokenBuffer.lex(tokenizer);
+        }
+        names = tokens.getNames();
         analyseProgram();
         return instructions;
     }
 
-    public HashMap<String, SymbolEntry> getSymbolTable(){
-        return this.symbolTable;
+    /**
+     * 和 analyse() 的结果相同，但函数体在 ForkJoinPool 里并行分析
+     * 先按源码顺序扫一遍：分析全局变量的声明，登记函数签名和函数编号，给函数体里的字符串常量分配全局变量下标，
+     * 所以全局变量表和函数编号和顺序分析时完全一样；然后每个函数体用自己的 Analyser 生成代码
+     * 有多个函数出错时报源码中最靠前的那个函数的错误
+     */
+    public List<Instruction> analyseParallel() throws CompileError {
+        if (tokens == null) {
+            tokens = TokenBuffer.lex(tokenizer);
+        }
+        names = tokens.getNames();
+        initSymbolTable();
+        stringSlots = new IntMap<>();
+        ArrayList<Integer> functionStarts = new ArrayList<>();
+        while(!check(TokenType.EOF)){
+            if(check(TokenType.FN_KW)){
+                functionStarts.add(peek());
+                analyseFunctionSignature();
+            }
+            else if(check(TokenType.LET_KW)){
+                analyseLetDeclStmt(startName, false);
+            }
+            else if(check(TokenType.CONST_KW)){
+                analyseConstDeclStmt(startName, false);
+            }
+            else{
+                throw new ExpectedTokenError(List.of(TokenType.FN_KW, TokenType.LET_KW, TokenType.CONST_KW), tokens.token(next()));
+            }
+        }
+        expect(TokenType.EOF);
+        initStart();
+
+        ArrayList<ForkJoinTask<CompileError>> tasks = new ArrayList<>();
+        for(int start : functionStarts){
+            Analyser worker = new Analyser(this, start);
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                try {
+                    worker.analyseFunction();
+                    return null;
+                } catch (CompileError e) {
+                    return e;
+                }
+            }));
+        }
+        CompileError error = null;
+        for(ForkJoinTask<CompileError> task : tasks){
+            CompileError e = task.join();
+            if(error == null){
+                error = e;
+            }
+        }
+        if(error != null){
+            throw error;
+        }
+        return instructions;
+    }
+
+    public IntMap<SymbolEntry> getSymbolTable(){
+        return this.symbolTable.getGlobals();
     }
 
     /**
      * 查看下一个 Token
      *
-     * @return
+     * @return token 在 tokens 中的下标
      * @throws TokenizeError
      */
-    private Token peek() throws TokenizeError {
-        if (peekedToken == null) {
-            peekedToken = tokenizer.nextToken();
-        }
-        return peekedToken;
+    private int peek() throws TokenizeError {
+        return tokens.peek(0);
     }
 
     /**
      * 获取下一个 Token
      *
-     * @return
+     * @return token 在 tokens 中的下标
      * @throws TokenizeError
      */
-    private Token next() throws TokenizeError {
-        if (peekedToken != null) {
-            var token = peekedToken;
-            peekedToken = null;
-            return token;
-        } else {
-            return tokenizer.nextToken();
-        }
+    private int next() throws TokenizeError {
+        return tokens.next();
     }
 
     /**
@@ -123,23 +235,22 @@ public final class Analyser {
      * @throws TokenizeError
      */
     private boolean check(TokenType tt) throws TokenizeError {
-        var token = peek();
-        return token.getTokenType() == tt;
+        return tokens.type(peek()) == tt;
     }
 
     /**
      * 如果下一个 token 的类型是 tt，则前进一个 token 并返回这个 token
      *
      * @param tt 类型
-     * @return 如果匹配则返回这个 token，否则返回 null
+     * @return 如果匹配则返回这个 token 的下标，否则返回 -1
      * @throws TokenizeError
      */
-    private Token nextIf(TokenType tt) throws TokenizeError {
+    private int nextIf(TokenType tt) throws TokenizeError {
         var token = peek();
-        if (token.getTokenType() == tt) {
+        if (tokens.type(token) == tt) {
             return next();
         } else {
-            return null;
+            return -1;
         }
     }
 
@@ -147,16 +258,16 @@ public final class Analyser {
      * 如果下一个 token 的类型是 tt，则前进一个 token 并返回，否则抛出异常
      *
      * @param tt 类型
-     * @return 这个 token
+     * @return 这个 token 的下标
      * @throws CompileError 如果类型不匹配
      */
-    private Token expect(TokenType tt) throws CompileError {
+    private int expect(TokenType tt) throws CompileError {
         var token = peek();
-        //System.out.println(token.getTokenType());
-        if (token.getTokenType() == tt) {
+        //System.out.println(tokens.type(token));
+        if (tokens.type(token) == tt) {
             return next();
         } else {
-            throw new ExpectedTokenError(tt, token);
+            throw new ExpectedTokenError(tt, tokens.token(token));
         }
     }
 
@@ -170,41 +281,34 @@ public final class Analyser {
     }
 
     /**
-     * 添加一个符号
+     * 在当前作用域中添加一个符号
      *
      * @param name          名字
      * @param isInitialized 是否已赋值
      * @param isConstant    是否是常量
-     * @param curPos        当前 token 的位置（报错用）
-     * @throws AnalyzeError 如果重复定义了则抛异常
+     * @param slot          变量的槽位
+     * @param curToken      当前 token（报错用）
+     * @return 新的符号
+     * @throws AnalyzeError 如果当前作用域中重复定义了则抛异常
      */
-    private void addSymbol(String name, String type, int layer, boolean isInitialized, boolean isConstant, Pos curPos) throws AnalyzeError {
-        Iterator iter = symbolTable.entrySet().iterator();
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            String name1 = entry.getKey().toString();
-            SymbolEntry symbolEntry1 = (SymbolEntry) entry.getValue();
-            //SymbolEntry symbolEntry = symbolTable.get(symbolEntryIterator.next());
-            //System.out.print(String.format("%s %s %d\n", name, symbolEntry.getType(), symbolEntry.getLayer()));
-            if(name1.equals(name) && symbolEntry1.getLayer() == layer){
-                throw new AnalyzeError(ErrorCode.DuplicateDeclaration,curPos);
-            }
+    private SymbolEntry addSymbol(int name, String type, boolean isInitialized, boolean isConstant, int slot, int curToken) throws AnalyzeError {
+        SymbolEntry entry = new SymbolEntry(type, symbolTable.depth(), isConstant, isInitialized, slot);
+        entry.declaredAt = curToken;
+        if(!symbolTable.declare(name, entry)){
+            throw new AnalyzeError(ErrorCode.DuplicateDeclaration, tokens.startPos(curToken));
         }
-        this.symbolTable.put(name, new SymbolEntry(type, layer, isConstant, isInitialized, getNextVariableOffset()));
-    }
-    private void addSymbol(String name, String type, String returnType, int layer, boolean isInitialized, boolean isConstant, Pos curPos) throws AnalyzeError {
-        Iterator iter = symbolTable.entrySet().iterator();
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            String name1 = entry.getKey().toString();
-            SymbolEntry symbolEntry1 = (SymbolEntry) entry.getValue();
-            //SymbolEntry symbolEntry = symbolTable.get(symbolEntryIterator.next());
-            //System.out.print(String.format("%s %s %d\n", name, symbolEntry.getType(), symbolEntry.getLayer()));
-            if(name1.equals(name) && symbolEntry1.getLayer() <= layer){
-                throw new AnalyzeError(ErrorCode.DuplicateDeclaration,curPos);
-            }
+        return entry;
+    }
+    /**
+     * 在全局作用域中添加一个符号（函数和字符串常量）
+     */
+    private SymbolEntry addSymbol(int name, String type, String returnType, boolean isInitialized, boolean isConstant, int slot, int curToken) throws AnalyzeError {
+        SymbolEntry entry = new SymbolEntry(type, returnType, 0, isConstant, isInitialized, slot);
+        entry.declaredAt = curToken;
+        if(!symbolTable.declareGlobal(name, entry)){
+            throw new AnalyzeError(ErrorCode.DuplicateDeclaration, tokens.startPos(curToken));
         }
-        this.symbolTable.put(name, new SymbolEntry(type, returnType, layer, isConstant, isInitialized, getNextVariableOffset()));
+        return entry;
     }
 
     /**
@@ -214,7 +318,7 @@ public final class Analyser {
      * @param curPos 当前位置（报错用）
      * @throws AnalyzeError 如果未定义则抛异常
      */
-    private void initializeSymbol(String name, Pos curPos) throws AnalyzeError {
+    private void initializeSymbol(int name, Pos curPos) throws AnalyzeError {
         var entry = this.symbolTable.get(name);
         if (entry == null) {
             throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
@@ -231,7 +335,7 @@ public final class Analyser {
      * @return 栈偏移
      * @throws AnalyzeError
      */
-    private int getOffset(String name, Pos curPos) throws AnalyzeError {
+    private int getOffset(int name, Pos curPos) throws AnalyzeError {
         var entry = this.symbolTable.get(name);
         if (entry == null) {
             throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
@@ -248,7 +352,7 @@ public final class Analyser {
      * @return 是否为常量
      * @throws AnalyzeError
      */
-    private boolean isConstant(String name, Pos curPos) throws AnalyzeError {
+    private boolean isConstant(int name, Pos curPos) throws AnalyzeError {
         var entry = this.symbolTable.get(name);
         if (entry == null) {
             throw new AnalyzeError(ErrorCode.NotDeclared, curPos);
@@ -267,55 +371,99 @@ public final class Analyser {
                 analyseFunction();
             }
             else if(check(TokenType.LET_KW)){
-                analyseLetDeclStmt("_start", false);
+                analyseLetDeclStmt(startName, false);
             }
             else if(check(TokenType.CONST_KW)){
-                analyseConstDeclStmt("_start", false);
+                analyseConstDeclStmt(startName, false);
             }
             else{
-                throw new ExpectedTokenError(List.of(TokenType.FN_KW, TokenType.LET_KW, TokenType.CONST_KW), next());
+                throw new ExpectedTokenError(List.of(TokenType.FN_KW, TokenType.LET_KW, TokenType.CONST_KW), tokens.token(next()));
             }
         }
         expect(TokenType.EOF);
         initStart();
-        System.out.println("语法分析完成");
     }
 
-    private int getIndexByName(String name){
-        Iterator iter = symbolTable.entrySet().iterator();
-        int i = 0;
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            String name1 = entry.getKey().toString();
-            SymbolEntry symbolEntry1 = (SymbolEntry) entry.getValue();
-            if(name1.equals(name)){
-                return i;
+    private int getIndexByName(int name){
+        IntMap<SymbolEntry> globals = symbolTable.getGlobals();
+        int index = 0;
+        for(int i = 0;i < globals.entryCount();i++){
+            if(globals.valueAt(i) == null){
+                continue;
             }
-            i++;
+            if(globals.keyAt(i) == name){
+                return index;
+            }
+            index++;
         }
         return -1;
     }
 
     private void initStart(){
-        SymbolEntry startEntry = symbolTable.get("_start");
-        Iterator iter = symbolTable.entrySet().iterator();
-        int j = startEntry.getInstructionLen();
-        InstructionEntry[] instructionEntries = startEntry.getInstructions();
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            String name1 = entry.getKey().toString();
-            SymbolEntry symbolEntry1 = (SymbolEntry) entry.getValue();
-            if(symbolEntry1.getType().equals("func") && name1.equals("main")){
-                InstructionEntry instructionEntry4 = new InstructionEntry("stackalloc", 0);
-                InstructionEntry instructionEntry = new InstructionEntry("call", funcIndex.get(name1) - 8);
-                instructionEntries[j++] = instructionEntry4;
-                instructionEntries[j++] = instructionEntry;
+        CodeBuffer code = symbolTable.getGlobal(startName).getCode();
+        IntMap<SymbolEntry> globals = symbolTable.getGlobals();
+        for(int i = 0;i < globals.entryCount();i++){
+            int name1 = globals.keyAt(i);
+            SymbolEntry symbolEntry1 = globals.valueAt(i);
+            if(symbolEntry1 == null){
+                continue;
+            }
+            if(symbolEntry1.getType().equals("func") && name1 == mainName){
+                code.emit(Opcode.STACKALLOC, 0);
+                code.emit(Opcode.CALL, funcIndex.get(name1) - 8);
             }
         }
-        SymbolEntry start = symbolTable.get("_start");
-        start.setInstructions(instructionEntries);
-        start.setInstructionLen(j);
     }
+    /**
+     * 预扫描一个函数：登记函数名、返回值类型和函数编号，参数和函数体留给 analyseFunction
+     */
+    private void analyseFunctionSignature() throws CompileError {
+        expect(TokenType.FN_KW);
+        int nameToken = expect(TokenType.IDENT);
+        int name = tokens.nameId(nameToken);
+        SymbolEntry thisSymbol = addSymbol(name, "func", "returnType", true, false, findex, nameToken);
+        thisSymbol.setCode(new CodeBuffer());
+        expect(TokenType.L_PAREN);
+        while(nextIf(TokenType.R_PAREN) == -1){
+            if(check(TokenType.EOF)){
+                throw new ExpectedTokenError(TokenType.R_PAREN, tokens.token(peek()));
+            }
+            next();
+        }
+        expect(TokenType.ARROW);
+        String returnType = tokens.stringValue(expect(TokenType.IDENT));
+        if(name == mainName){
+            hasMain = true;
+        }
+        thisSymbol.setReturnType(returnType);
+        funcIndex.put(name, findex++);
+        skipBlock();
+    }
+
+    /**
+     * 跳过一个 block_stmt，里面的字符串常量按出现的顺序加入全局变量表
+     */
+    private void skipBlock() throws CompileError {
+        expect(TokenType.L_BRACE);
+        int depth = 1;
+        while(depth > 0){
+            int token = next();
+            TokenType tt = tokens.type(token);
+            if(tt == TokenType.L_BRACE){
+                depth++;
+            }
+            else if(tt == TokenType.R_BRACE){
+                depth--;
+            }
+            else if(tt == TokenType.STRING_LITERAL){
+                stringSlots.put(token, internString(tokens.stringValue(token)));
+            }
+            else if(tt == TokenType.EOF){
+                throw new ExpectedTokenError(TokenType.R_BRACE, tokens.token(token));
+            }
+        }
+    }
+
     /*
     * function_param -> 'const'? IDENT ':' ty
       function_param_list -> function_param (',' function_param)*
@@ -324,57 +472,49 @@ public final class Analyser {
     private void analyseFunction() throws CompileError {
         expect(TokenType.FN_KW);
         //函数名
-        var nameToken = expect(TokenType.IDENT);
-        String name = (String) nameToken.getValue();
-        addSymbol(name, "func", "returnType", layer++,true, false, nameToken.getStartPos());
+        int nameToken = expect(TokenType.IDENT);
+        int name = tokens.nameId(nameToken);
+        SymbolEntry thisSymbol;
+        if(parent != null){
+            // 签名已经在预扫描时登记过了
+            thisSymbol = symbolTable.getGlobal(name);
+        }
+        else{
+            thisSymbol = addSymbol(name, "func", "returnType", true, false, findex, nameToken);
+            thisSymbol.setCode(new CodeBuffer());
+        }
+        // 参数和函数体在同一个作用域里
+        symbolTable.enterScope();
         expect(TokenType.L_PAREN);
-        if(nextIf(TokenType.R_PAREN) == null){
+        if(nextIf(TokenType.R_PAREN) == -1){
             analyseFunctionParamList(name);
         }
         expect(TokenType.ARROW);
         //返回值类型，以后可能要改，加入符号表啥的
-        String returnType = (String)expect(TokenType.IDENT).getValue();
+        String returnType = tokens.stringValue(expect(TokenType.IDENT));
         // 加入符号表
 
-        if(name.equals("main")){
+        if(name == mainName){
             hasMain = true;
         }
         String type = "func";
-//        addSymbol(name,  type, returnType, layer++,true, false, nameToken.getStartPos());
-        SymbolEntry thisSymbol = symbolTable.get(name);
-        thisSymbol.setReturnType(returnType);
-        funcIndex.put(name, findex++);
-        analyseBlockStmt(name, false, 0, 0, 0);
-        if(returnType.equals("void")){
-            SymbolEntry function = symbolTable.get(name);
-            InstructionEntry[] instructionEntries = function.getInstructions();
-            int len = function.getInstructionLen();
-            InstructionEntry instructionEntry1 = new InstructionEntry("ret");
-            instructionEntries[len++] = instructionEntry1;
-            function.setInstructionLen(len);
-            function.setInstructions(instructionEntries);
+//        addSymbol(name,  type, returnType, true, false, findex, nameToken);
+        if(parent == null){
+            thisSymbol.setReturnType(returnType);
+            funcIndex.put(name, findex++);
+        }
+        expect(TokenType.L_BRACE);
+        while(!check(TokenType.R_BRACE)){
+            analyseStmt(name, null, null);
         }
+        expect(TokenType.R_BRACE);
         //将当前的变量弹出符号表
-        int currentLayer = layer;
-        Iterator iter = symbolTable.entrySet().iterator();
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            String varname = entry.getKey().toString();
-            SymbolEntry symbolEntry = (SymbolEntry) entry.getValue();
-            if(symbolEntry.getLayer() == currentLayer){
-                if(globaVarIndex.get(varname) != null){
-                    symbolEntry.setLayer(0);
-                    symbolEntry.setParam(false);
-                }
-                else{
-                    iter.remove();
-                }
-            }
+        symbolTable.exitScope();
+        if(returnType.equals("void")){
+            thisSymbol.getCode().emit(Opcode.RET);
         }
-        layer = currentLayer - 1;
-
     }
-    private void analyseFunctionParamList(String funcName) throws CompileError {
+    private void analyseFunctionParamList(int funcName) throws CompileError {
         if(check(TokenType.CONST_KW) || check(TokenType.IDENT)){
             analyseFunctionParam(funcName);
         }
@@ -384,27 +524,27 @@ public final class Analyser {
         }
         expect(TokenType.R_PAREN);
     }
-    private void analyseFunctionParam(String funcName) throws CompileError{
+    private void analyseFunctionParam(int funcName) throws CompileError{
         boolean isconst = false;
-        if(nextIf(TokenType.CONST_KW) != null){
+        if(nextIf(TokenType.CONST_KW) != -1){
             isconst = true;
         }
-        var nameToken = expect(TokenType.IDENT);
+        int nameToken = expect(TokenType.IDENT);
         expect(TokenType.COLON);
-        String type = (String)expect(TokenType.IDENT).getValue();
+        String type = tokens.stringValue(expect(TokenType.IDENT));
         // 加入符号表
-        String name = (String) nameToken.getValue();
-        addSymbol(name, type, layer,true, isconst, nameToken.getStartPos());
-        SymbolEntry thisSymbol = symbolTable.get(name);
-        thisSymbol.setParam(true);
-        SymbolEntry function = symbolTable.get(funcName);
-        HashMap<String, Integer> argVars = function.getArgVars();
+        int name = tokens.nameId(nameToken);
+        SymbolEntry function = symbolTable.getGlobal(funcName);
         int argVarsCount = function.getArgVarCount();
-        argVars.put(name, argVarsCount++);
-        function.setArgVars(argVars);
+        SymbolEntry thisSymbol = addSymbol(name, type, true, isconst, argVarsCount++, nameToken);
+        thisSymbol.setParam(true);
         function.setArgVarCount(argVarsCount);
     }
-    private void analyseStmt(String funcName, boolean isLoop, int loc1, int loc2, int elseLayer) throws CompileError{
+    /**
+     * @param continueLabel 所在循环的 continue 目标，不在循环里时为 null
+     * @param breakLabel    所在循环的 break 目标，不在循环里时为 null
+     */
+    private void analyseStmt(int funcName, Label continueLabel, Label breakLabel) throws CompileError{
         if(check(TokenType.R_BRACE)){
         }
         else{
@@ -418,7 +558,7 @@ public final class Analyser {
             }
             //if语句
             else if(check(TokenType.IF_KW)){
-                analyseIfStmt(funcName, isLoop, loc1, loc2, elseLayer);
+                analyseIfStmt(funcName, continueLabel, breakLabel);
             }
             //while语句
             else if(check(TokenType.WHILE_KW)){
@@ -430,21 +570,21 @@ public final class Analyser {
             }
             //语句块
             else if(check(TokenType.L_BRACE)){
-                analyseBlockStmt(funcName, isLoop, loc1, loc2, elseLayer);
+                analyseBlockStmt(funcName, continueLabel, breakLabel);
             }
             //break语句
             else if(check(TokenType.BREAK_KW)){
-                if(!isLoop){
+                if(breakLabel == null){
                     throw new AnalyzeError(ErrorCode.BreakOrContinueWrong, new Pos(0, 0));
                 }
-                analyseBreakStmt(funcName, loc2, elseLayer);
+                analyseBreakStmt(funcName, breakLabel);
             }
             //continue语句
             else if(check(TokenType.CONTINUE_KW)){
-                if(!isLoop){
+                if(continueLabel == null){
                     throw new AnalyzeError(ErrorCode.BreakOrContinueWrong, new Pos(0, 0));
                 }
-                analyseContinueStmt(funcName, loc1, elseLayer);
+                analyseContinueStmt(funcName, continueLabel);
             }
             //空语句
             else if(check(TokenType.SEMICOLON)){
@@ -456,7 +596,7 @@ public final class Analyser {
             }
         }
     }
-    private void analyseExprStmt(String funcName) throws CompileError{
+    private void analyseExprStmt(int funcName) throws CompileError{
         analyseExpr(funcName);
         expect(TokenType.SEMICOLON);
 
@@ -464,233 +604,302 @@ public final class Analyser {
     private void analyseEmptyStmt() throws CompileError{
         expect(TokenType.SEMICOLON);
     }
-    private void analyseBreakStmt(String funcName, int loc, int elseLayer) throws CompileError{
+    private void analyseBreakStmt(int funcName, Label breakLabel) throws CompileError{
         expect(TokenType.BREAK_KW);
-        int currentLoc = symbolTable.get(funcName).getInstructionLen();
-        insertInstru(funcName, new InstructionEntry("br", loc - currentLoc - 3 - elseLayer), currentLoc);
+        emitBranch(funcName, Opcode.BR, breakLabel);
         expect(TokenType.SEMICOLON);
     }
-    private void analyseContinueStmt(String funcName, int loc, int elseLayer) throws CompileError{
+    private void analyseContinueStmt(int funcName, Label continueLabel) throws CompileError{
         expect(TokenType.CONTINUE_KW);
-        int currentLoc = symbolTable.get(funcName).getInstructionLen();
-        insertInstru(funcName, new InstructionEntry("br", loc - currentLoc - 3 - elseLayer), currentLoc);
+        emitBranch(funcName, Opcode.BR, continueLabel);
         expect(TokenType.SEMICOLON);
     }
-    private void analyseBlockStmt(String funcName, boolean isLoop, int loc1, int loc2, int elseLayer) throws CompileError{
+    private void analyseBlockStmt(int funcName, Label continueLabel, Label breakLabel) throws CompileError{
         expect(TokenType.L_BRACE);
 //        if(nextIf(TokenType.R_BRACE) == null){
 //            analyseStmt();
 //        }
+        symbolTable.enterScope();
         while(!check(TokenType.R_BRACE)){
-            analyseStmt(funcName, isLoop, loc1, loc2, elseLayer);
+            analyseStmt(funcName, continueLabel, breakLabel);
         }
+        symbolTable.exitScope();
         expect(TokenType.R_BRACE);
     }
-    private void analyseReturnStmt(String funcName) throws CompileError{
+    private void analyseReturnStmt(int funcName) throws CompileError{
         boolean isInt = false;
-        SymbolEntry symbolEntry = symbolTable.get(funcName);
-        var nameToken = expect(TokenType.RETURN_KW);
-        SymbolEntry function = symbolTable.get(funcName);
-        InstructionEntry[] instructionEntries = function.getInstructions();
+        SymbolEntry symbolEntry = symbolTable.getGlobal(funcName);
+        int nameToken = expect(TokenType.RETURN_KW);
         //有返回值
         if(!check(TokenType.SEMICOLON)){
-            int len = function.getInstructionLen();
-            InstructionEntry instructionEntry1 = new InstructionEntry("arga", 0);
-            instructionEntries[len++] = instructionEntry1;
-            function.setInstructionLen(len);
-            function.setInstructions(instructionEntries);
+            emit(funcName, Opcode.ARGA, 0);
             isInt = true;
             String type = analyseExpr(funcName);
-            instructionEntries = function.getInstructions();
-            len = function.getInstructionLen();
-            InstructionEntry instructionEntry2 = new InstructionEntry("store64");
-            instructionEntries[len++] = instructionEntry2;
-            function.setInstructionLen(len);
-            function.setInstructions(instructionEntries);
+            emit(funcName, Opcode.STORE_64);
             assert symbolEntry != null;
             if(!symbolEntry.getReturnType().equals(type)){
-                throw new AnalyzeError(ErrorCode.ReturnTypeWrong, nameToken.getStartPos());
+                throw new AnalyzeError(ErrorCode.ReturnTypeWrong, tokens.startPos(nameToken));
             }
         }
         assert symbolEntry != null;
         if(symbolEntry.getReturnType().equals("int")){
             if(!isInt){
-                throw new AnalyzeError(ErrorCode.ReturnTypeWrong, nameToken.getStartPos());
+                throw new AnalyzeError(ErrorCode.ReturnTypeWrong, tokens.startPos(nameToken));
             }
         }
-        instructionEntries = function.getInstructions();
-        int len = function.getInstructionLen();
-        InstructionEntry instructionEntry3 = new InstructionEntry("ret");
-        instructionEntries[len++] = instructionEntry3;
-        function.setInstructionLen(len);
-        function.setInstructions(instructionEntries);
+        emit(funcName, Opcode.RET);
         expect(TokenType.SEMICOLON);
 
 
     }
 
-    private void insertInstru(String funcname, InstructionEntry instructionEntry, int pos){
-        SymbolEntry function = symbolTable.get(funcname);
-        InstructionEntry[] instructionEntries = function.getInstructions();
-        int len = function.getInstructionLen();
-        for(int i = len;i > pos;i--){
-            instructionEntries[i] = instructionEntries[i - 1];
-        }
-        instructionEntries[pos] = instructionEntry;
-        len++;
-        function.setInstructionLen(len);
-        function.setInstructions(instructionEntries);
+    /**
+     * 在函数末尾添加一条指令
+     */
+    private void emit(int funcName, Opcode op){
+        symbolTable.getGlobal(funcName).getCode().emit(op);
+    }
+
+    private void emit(int funcName, Opcode op, long operand){
+        symbolTable.getGlobal(funcName).getCode().emit(op, operand);
+    }
+
+    private void emitBranch(int funcName, Opcode op, Label label){
+        symbolTable.getGlobal(funcName).getCode().emitBranch(op, label);
+    }
+
+    private void bindLabel(int funcName, Label label){
+        symbolTable.getGlobal(funcName).getCode().bindLabel(label);
     }
 
-    private void analyseWhileStmt(String funcName) throws CompileError{
+    /**
+     * 条件不成立时跳到 target
+     * 比较运算在末尾留下 br.true / br.false 1（成立时跳过下一条），直接换成取反的条件跳转跳到 target；
+     * 其他表达式的值留在栈上，用 br.false 跳
+     */
+    private void emitBranchIfFalse(int funcName, Label target){
+        CodeBuffer code = codeOf(funcName);
+        Opcode last = code.lastOpcode();
+        if((last == Opcode.BR_TRUE || last == Opcode.BR_FALSE) && code.operand(code.size() - 1) == 1){
+            code.truncate(code.size() - 1);
+            emitBranch(funcName, invert(last), target);
+        }
+        else{
+            emitBranch(funcName, Opcode.BR_FALSE, target);
+        }
+    }
+
+    private static Opcode invert(Opcode branch){
+        return branch == Opcode.BR_TRUE ? Opcode.BR_FALSE : Opcode.BR_TRUE;
+    }
+
+    private CodeBuffer codeOf(int funcName){
+        return symbolTable.getGlobal(funcName).getCode();
+    }
+
+    /**
+     * code 中 [from, to) 这段代码是否只有一条 push，即这个表达式的值在编译时就知道了
+     */
+    private static boolean isLiteral(CodeBuffer code, int from, int to){
+        return to - from == 1 && code.opcode(from) == Opcode.PUSH;
+    }
+
+    /**
+     * 删掉 start 及以后的代码，同时丢掉所在循环的 label 里指向这些代码的回填项
+     */
+    private static void discardCode(CodeBuffer code, int start, Label continueLabel, Label breakLabel){
+        code.truncate(start);
+        if(continueLabel != null){
+            continueLabel.discardFixups(start);
+        }
+        if(breakLabel != null){
+            breakLabel.discardFixups(start);
+        }
+    }
+
+    private void analyseWhileStmt(int funcName) throws CompileError{
         expect(TokenType.WHILE_KW);
-        SymbolEntry function = symbolTable.get(funcName);
-        InstructionEntry[] instructionEntries = function.getInstructions();
-        int len = function.getInstructionLen();
-        InstructionEntry instructionEntry1 = new InstructionEntry("br", 0);
-        instructionEntries[len++] = instructionEntry1;
-        function.setInstructionLen(len);
-        function.setInstructions(instructionEntries);
-        //记录当前指令集位置为loc1
-        int loc1 = function.getInstructionLen();
-        System.out.println("loc1:" + loc1);
+        CodeBuffer code = codeOf(funcName);
+        Label condLabel = new Label();
+        Label exitLabel = new Label();
+        bindLabel(funcName, condLabel);
+        int condStart = code.size();
         analyseExpr(funcName);
-        //记录当前指令集位置为loc2
-        int loc2 = function.getInstructionLen();
-        instructionEntries = function.getInstructions();
-        if(!instructionEntries[loc2 - 1].getInstru().equals("brtrue") && !instructionEntries[loc2 - 1].getInstru().equals("brfalse")){
-            insertInstru(funcName, new InstructionEntry("brtrue", 1), loc2++);
-        }
-        System.out.println("loc2:" + loc2);
-        analyseBlockStmt(funcName, true, loc1, loc2, 0);
-        //记录当前指令集位置为loc3
-        int loc3 = function.getInstructionLen();
-        insertInstru(funcName, new InstructionEntry("br", loc3 - loc2 + 1), loc2);
-        insertInstru(funcName, new InstructionEntry("br", loc1 - loc3 - 2), loc3 + 1);
-    }
-    private void analyseIfStmt(String funcName, boolean isLoop, int loc4, int loc5, int elseLayer) throws CompileError{
+        if(isLiteral(code, condStart, code.size())){
+            if(code.operand(condStart) == 0){
+                // 循环体一次也不会执行，照常分析，但丢掉整个循环的代码
+                analyseBlockStmt(funcName, condLabel, exitLabel);
+                code.truncate(condStart);
+                return;
+            }
+            // 条件恒成立，只能用 break 退出
+            code.truncate(condStart);
+        }
+        else{
+            emitBranchIfFalse(funcName, exitLabel);
+            if(rotateLoops){
+                analyseRotatedWhile(funcName, condStart, exitLabel);
+                return;
+            }
+        }
+        analyseBlockStmt(funcName, condLabel, exitLabel);
+        emitBranch(funcName, Opcode.BR, condLabel);
+        bindLabel(funcName, exitLabel);
+    }
+
+    /**
+     * 把循环排成 条件; 不成立时跳到出口; 循环体; 条件; 成立时跳回循环体 的形式，
+     * 每次循环只在末尾执行一条条件跳转。continue 跳到末尾的条件，break 跳到出口
+     *
+     * @param condStart 开头那份条件的起始下标，它后面已经是条件不成立时跳到出口的跳转
+     */
+    private void analyseRotatedWhile(int funcName, int condStart, Label exitLabel) throws CompileError{
+        CodeBuffer code = codeOf(funcName);
+        int condEnd = code.size() - 1;
+        Opcode condOp = invert(code.opcode(condEnd));
+        Label bodyLabel = new Label();
+        Label continueLabel = new Label();
+        bindLabel(funcName, bodyLabel);
+        analyseBlockStmt(funcName, continueLabel, exitLabel);
+        bindLabel(funcName, continueLabel);
+        // 条件的代码里只有相对的跳转，可以原样复制
+        for(int i = condStart; i < condEnd; i++){
+            code.emit(code.opcode(i), code.operand(i));
+        }
+        emitBranch(funcName, condOp, bodyLabel);
+        bindLabel(funcName, exitLabel);
+    }
+    private void analyseIfStmt(int funcName, Label continueLabel, Label breakLabel) throws CompileError{
         expect(TokenType.IF_KW);
-        SymbolEntry function = symbolTable.get(funcName);
+        CodeBuffer code = codeOf(funcName);
+        int start = code.size();
         analyseExpr(funcName);
-        //loc1
-        int loc1 = function.getInstructionLen();
-        InstructionEntry[] instructionEntries = function.getInstructions();
-        if(!instructionEntries[loc1 - 1].getInstru().equals("brtrue") && !instructionEntries[loc1 - 1].getInstru().equals("brfalse")){
-            insertInstru(funcName, new InstructionEntry("brtrue", 1), loc1++);
-        }
-        analyseBlockStmt(funcName, isLoop, loc4, loc5, elseLayer);
-        //loc2
-        int loc2 = function.getInstructionLen();
-        insertInstru(funcName, new InstructionEntry("br", loc2 - loc1 + 1), loc1);
-        //insertInstru(funcName, new InstructionEntry("br", 0), loc2 + 1);
-        boolean hasElse = false;
-        if(nextIf(TokenType.ELSE_KW) != null){
-            hasElse = true;
+        if(isLiteral(code, start, code.size())){
+            boolean condition = code.operand(start) != 0;
+            code.truncate(start);
+            analyseConstantIf(funcName, condition, continueLabel, breakLabel);
+            return;
+        }
+        Label elseLabel = new Label();
+        emitBranchIfFalse(funcName, elseLabel);
+        analyseBlockStmt(funcName, continueLabel, breakLabel);
+        if(nextIf(TokenType.ELSE_KW) != -1){
+            Label endLabel = new Label();
+            emitBranch(funcName, Opcode.BR, endLabel);
+            bindLabel(funcName, elseLabel);
             if(check(TokenType.L_BRACE)){
-                analyseBlockStmt(funcName, isLoop, loc4, loc5, elseLayer);
-//                int loc3 = function.getInstructionLen();
-//                insertInstru(funcName, new InstructionEntry("br", loc3 - loc2), loc2 + 1);
+                analyseBlockStmt(funcName, continueLabel, breakLabel);
             }
             else if(check(TokenType.IF_KW)){
-                elseLayer++;
-                analyseIfStmt(funcName, isLoop, loc4, loc5, elseLayer);
-                //int loc3 = function.getInstructionLen();
-                //insertInstru(funcName, new InstructionEntry("br", loc3 - loc2), loc2 + 1);
+                analyseIfStmt(funcName, continueLabel, breakLabel);
             }
+            emit(funcName, Opcode.BR, 0);
+            bindLabel(funcName, endLabel);
+        }
+        else{
+            emit(funcName, Opcode.BR, 0);
+            bindLabel(funcName, elseLabel);
+        }
+    }
+    /**
+     * 条件在编译时就知道的 if 语句：不生成跳转，另一个分支照常分析，但丢掉它的代码
+     */
+    private void analyseConstantIf(int funcName, boolean condition, Label continueLabel, Label breakLabel) throws CompileError{
+        CodeBuffer code = codeOf(funcName);
+        int thenStart = code.size();
+        analyseBlockStmt(funcName, continueLabel, breakLabel);
+        if(!condition){
+            discardCode(code, thenStart, continueLabel, breakLabel);
         }
-        function = symbolTable.get(funcName);
-        int loc3 = function.getInstructionLen();
-        if(hasElse){
-            insertInstru(funcName, new InstructionEntry("br", loc3 - loc2), loc2 + 1);
-            loc3++;
+        if(nextIf(TokenType.ELSE_KW) != -1){
+            int elseStart = code.size();
+            if(check(TokenType.L_BRACE)){
+                analyseBlockStmt(funcName, continueLabel, breakLabel);
+            }
+            else if(check(TokenType.IF_KW)){
+                analyseIfStmt(funcName, continueLabel, breakLabel);
+            }
+            if(condition){
+                discardCode(code, elseStart, continueLabel, breakLabel);
+            }
         }
-        insertInstru(funcName, new InstructionEntry("br", 0), loc3);
     }
-    private void analyseConstDeclStmt(String funcName, boolean isLoca) throws CompileError{
-        String locaOrglob = "globa";
+    private void analyseConstDeclStmt(int funcName, boolean isLoca) throws CompileError{
+        Opcode locaOrglob = Opcode.GLOBA;
         if(isLoca){
-            locaOrglob = "loca";
-        }
-        SymbolEntry function = symbolTable.get(funcName);
-        InstructionEntry[] instructionEntries = function.getInstructions();
-        int len = function.getInstructionLen();
-        int locaVarCount = function.getLocaVarCount();
-        InstructionEntry instructionEntry1 = new InstructionEntry(locaOrglob, locaVarCount++);
-        function.setLocaVarCount(locaVarCount);
-        instructionEntries[len++] = instructionEntry1;
-        function.setInstructionLen(len);
-        function.setInstructions(instructionEntries);
+            locaOrglob = Opcode.LOCA;
+        }
+        SymbolEntry function = symbolTable.getGlobal(funcName);
+        CodeBuffer code = codeOf(funcName);
+        int start = code.size();
+        int slot = isLoca ? function.getLocaVarCount() : globalSlots++;
+        emit(funcName, locaOrglob, slot);
         expect(TokenType.CONST_KW);
-        var nameToken = expect(TokenType.IDENT);
+        int nameToken = expect(TokenType.IDENT);
         expect(TokenType.COLON);
-        String type = (String)expect(TokenType.IDENT).getValue();
+        String type = tokens.stringValue(expect(TokenType.IDENT));
         if(!(type.equals("int") || type.equals("double"))){
-            throw new AnalyzeError(ErrorCode.InvalidAssignment, nameToken.getStartPos());
+            throw new AnalyzeError(ErrorCode.InvalidAssignment, tokens.startPos(nameToken));
         }
         expect(TokenType.ASSIGN);
+        int valueStart = code.size();
         analyseExpr(funcName);
-        len = function.getInstructionLen();
-        InstructionEntry instructionEntry2 = new InstructionEntry("store64");
-        instructionEntries[len++] = instructionEntry2;
-        function.setInstructionLen(len);
-        function.setInstructions(instructionEntries);
         expect(TokenType.SEMICOLON);
-        // 加入符号表
-        String name = (String) nameToken.getValue();
-        addSymbol(name, type, layer,true, true, nameToken.getStartPos());
-        HashMap<String,Integer> localVars = function.getLocalVars();
-        localVars.put(name, locaVarCount - 1);
-        if(!isLoca){
-            globaVarIndex.put(name, vindex++);
+        int name = tokens.nameId(nameToken);
+        if(isLiteral(code, valueStart, code.size())){
+            // 初始值是常量：常量不能赋值，也就用不到它的地址，不分配槽位，用到的地方直接 push
+            long value = code.operand(valueStart);
+            code.truncate(start);
+            if(!isLoca){
+                // 初始值里有字符串常量就不会只是一条 push，所以这个槽位还是最后分配的那个
+                globalSlots--;
+            }
+            SymbolEntry entry = addSymbol(name, type, true, true, -1, nameToken);
+            entry.isInlined = true;
+            entry.value = value;
+            return;
+        }
+        emit(funcName, Opcode.STORE_64);
+        if(isLoca){
+            function.setLocaVarCount(slot + 1);
         }
+        // 加入符号表
+        addSymbol(name, type, true, true, slot, nameToken);
     }
-    private void analyseLetDeclStmt(String funcName, boolean isLoca) throws CompileError{
+    private void analyseLetDeclStmt(int funcName, boolean isLoca) throws CompileError{
         boolean isInitialized = false;
-        SymbolEntry function = symbolTable.get(funcName);
+        SymbolEntry function = symbolTable.getGlobal(funcName);
         expect(TokenType.LET_KW);
-        var nameToken = expect(TokenType.IDENT);
+        int nameToken = expect(TokenType.IDENT);
         expect(TokenType.COLON);
-        String type = (String)expect(TokenType.IDENT).getValue();
+        String type = tokens.stringValue(expect(TokenType.IDENT));
         if(!(type.equals("int") || type.equals("double"))){
-            throw new AnalyzeError(ErrorCode.InvalidAssignment, nameToken.getStartPos());
+            throw new AnalyzeError(ErrorCode.InvalidAssignment, tokens.startPos(nameToken));
+        }
+        int slot;
+        if(isLoca){
+            slot = function.getLocaVarCount();
+            function.setLocaVarCount(slot + 1);
+        }
+        else{
+            slot = globalSlots++;
         }
         if(check(TokenType.ASSIGN)){
             isInitialized = true;
             expect(TokenType.ASSIGN);
-            String locaOrglob = "globa";
+            Opcode locaOrglob = Opcode.GLOBA;
             if(isLoca){
-                locaOrglob = "loca";
+                locaOrglob = Opcode.LOCA;
             }
-            InstructionEntry[] instructionEntries = function.getInstructions();
-            int len = function.getInstructionLen();
-            int locaVarCount = function.getLocaVarCount();
-            InstructionEntry instructionEntry1 = new InstructionEntry(locaOrglob, locaVarCount++);
-            function.setLocaVarCount(locaVarCount);
-            instructionEntries[len++] = instructionEntry1;
-            function.setInstructionLen(len);
-            function.setInstructions(instructionEntries);
+            emit(funcName, locaOrglob, slot);
             analyseExpr(funcName);
-            len = function.getInstructionLen();
-            InstructionEntry instructionEntry2 = new InstructionEntry("store64");
-            instructionEntries[len++] = instructionEntry2;
-            function.setInstructionLen(len);
-            function.setInstructions(instructionEntries);
-        }
-        else{
-            int locaVarCount = function.getLocaVarCount();
-            locaVarCount++;
-            function.setLocaVarCount(locaVarCount);
+            emit(funcName, Opcode.STORE_64);
         }
         expect(TokenType.SEMICOLON);
 
         // 加入符号表
-        String name = (String) nameToken.getValue();
-        addSymbol(name, type, layer, isInitialized, false, nameToken.getStartPos());
-        HashMap<String,Integer> localVars = function.getLocalVars();
-        localVars.put(name, function.getLocaVarCount() - 1);
-        if(!isLoca){
-            globaVarIndex.put(name, vindex++);
-        }
+        int name = tokens.nameId(nameToken);
+        addSymbol(name, type, isInitialized, false, slot, nameToken);
     }
     /*
      * 改写表达式相关的产生式：
@@ -701,142 +910,143 @@ public final class Analyser {
      * A -> ( - ) I
      * I -> IDENT | UNIT | DOUBLE | func_call | '(' E ')' | IDENT = E
      *  */
-    private String analyseExpr(String funcName) throws CompileError {
+    private String analyseExpr(int funcName) throws CompileError {
+        CodeBuffer code = codeOf(funcName);
+        int start = code.size();
         String type = analyseC(funcName);
         while (true) {
             // 预读可能是运算符的 token
-            var op = peek();
-            if (op.getTokenType() != TokenType.EQ &&
-                    op.getTokenType() != TokenType.NEQ &&
-                    op.getTokenType() != TokenType.LT &&
-                    op.getTokenType() != TokenType.GT &&
-                    op.getTokenType() != TokenType.LE &&
-                    op.getTokenType() != TokenType.GE) {
+            TokenType op = tokens.type(peek());
+            if (op != TokenType.EQ &&
+                    op != TokenType.NEQ &&
+                    op != TokenType.LT &&
+                    op != TokenType.GT &&
+                    op != TokenType.LE &&
+                    op != TokenType.GE) {
                 break;
             }
             // 运算符
             next();
+            int rightStart = code.size();
             analyseC(funcName);
 
-            SymbolEntry function = symbolTable.get(funcName);
-            InstructionEntry[] instructionEntries = function.getInstructions();
-            int len = function.getInstructionLen();
+            // 两边都是常量时直接算出结果，作为条件时和 push 1 / push 0 一样
+            if (isLiteral(code, start, rightStart) && isLiteral(code, rightStart, code.size())) {
+                long left = code.operand(start);
+                long right = code.operand(rightStart);
+                code.truncate(start);
+                emit(funcName, Opcode.PUSH, compare(op, left, right) ? 1 : 0);
+                continue;
+            }
             // 生成代码
-            if (op.getTokenType() == TokenType.EQ) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("cmpi");
-                InstructionEntry instructionEntry2 = new InstructionEntry("brfalse", 1);
-                instructionEntries[len++] = instructionEntry1;
-                instructionEntries[len++] = instructionEntry2;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
-            } else if (op.getTokenType() == TokenType.NEQ) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("cmpi");
-                InstructionEntry instructionEntry2 = new InstructionEntry("brtrue", 1);
-                instructionEntries[len++] = instructionEntry1;
-                instructionEntries[len++] = instructionEntry2;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
-            }else if (op.getTokenType() == TokenType.LT) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("cmpi");
-                InstructionEntry instructionEntry2 = new InstructionEntry("setlt");
-                InstructionEntry instructionEntry3 = new InstructionEntry("brtrue", 1);
-                instructionEntries[len++] = instructionEntry1;
-                instructionEntries[len++] = instructionEntry2;
-                instructionEntries[len++] = instructionEntry3;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
-            }else if (op.getTokenType() == TokenType.GT) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("cmpi");
-                InstructionEntry instructionEntry2 = new InstructionEntry("setgt");
-                InstructionEntry instructionEntry3 = new InstructionEntry("brtrue", 1);
-                instructionEntries[len++] = instructionEntry1;
-                instructionEntries[len++] = instructionEntry2;
-                instructionEntries[len++] = instructionEntry3;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
-            }else if (op.getTokenType() == TokenType.LE) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("cmpi");
-                InstructionEntry instructionEntry2 = new InstructionEntry("setgt");
-                InstructionEntry instructionEntry3 = new InstructionEntry("brfalse", 1);
-                instructionEntries[len++] = instructionEntry1;
-                instructionEntries[len++] = instructionEntry2;
-                instructionEntries[len++] = instructionEntry3;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
-            }else if (op.getTokenType() == TokenType.GE) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("cmpi");
-                InstructionEntry instructionEntry2 = new InstructionEntry("setlt");
-                InstructionEntry instructionEntry3 = new InstructionEntry("brfalse", 1);
-                instructionEntries[len++] = instructionEntry1;
-                instructionEntries[len++] = instructionEntry2;
-                instructionEntries[len++] = instructionEntry3;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
+            if (op == TokenType.EQ) {
+                emit(funcName, Opcode.CMP_I);
+                emit(funcName, Opcode.BR_FALSE, 1);
+            } else if (op == TokenType.NEQ) {
+                emit(funcName, Opcode.CMP_I);
+                emit(funcName, Opcode.BR_TRUE, 1);
+            }else if (op == TokenType.LT) {
+                emit(funcName, Opcode.CMP_I);
+                emit(funcName, Opcode.SET_LT);
+                emit(funcName, Opcode.BR_TRUE, 1);
+            }else if (op == TokenType.GT) {
+                emit(funcName, Opcode.CMP_I);
+                emit(funcName, Opcode.SET_GT);
+                emit(funcName, Opcode.BR_TRUE, 1);
+            }else if (op == TokenType.LE) {
+                emit(funcName, Opcode.CMP_I);
+                emit(funcName, Opcode.SET_GT);
+                emit(funcName, Opcode.BR_FALSE, 1);
+            }else if (op == TokenType.GE) {
+                emit(funcName, Opcode.CMP_I);
+                emit(funcName, Opcode.SET_LT);
+                emit(funcName, Opcode.BR_FALSE, 1);
             }
         }
         return type;
     }
-    private String analyseC(String funcName) throws CompileError {
+    private static boolean compare(TokenType op, long left, long right) {
+        switch (op) {
+            case EQ:
+                return left == right;
+            case NEQ:
+                return left != right;
+            case LT:
+                return left < right;
+            case GT:
+                return left > right;
+            case LE:
+                return left <= right;
+            default:
+                return left >= right;
+        }
+    }
+    private String analyseC(int funcName) throws CompileError {
+        CodeBuffer code = codeOf(funcName);
+        int start = code.size();
         String type = analyseT(funcName);
         while (true) {
             // 预读可能是运算符的 token
-            var op = peek();
-            if (op.getTokenType() != TokenType.PLUS &&
-                    op.getTokenType() != TokenType.MINUS) {
+            TokenType op = tokens.type(peek());
+            if (op != TokenType.PLUS &&
+                    op != TokenType.MINUS) {
                 break;
             }
             // 运算符
             next();
+            int rightStart = code.size();
             analyseT(funcName);
-            SymbolEntry function = symbolTable.get(funcName);
-            InstructionEntry[] instructionEntries = function.getInstructions();
-            int len = function.getInstructionLen();
+            if (isLiteral(code, start, rightStart) && isLiteral(code, rightStart, code.size())) {
+                long left = code.operand(start);
+                long right = code.operand(rightStart);
+                code.truncate(start);
+                emit(funcName, Opcode.PUSH, op == TokenType.PLUS ? left + right : left - right);
+                continue;
+            }
             // 生成代码
-            if (op.getTokenType() == TokenType.PLUS) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("addi");
-                instructionEntries[len++] = instructionEntry1;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
-            } else if (op.getTokenType() == TokenType.MINUS) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("subi");
-                instructionEntries[len++] = instructionEntry1;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
+            if (op == TokenType.PLUS) {
+                emit(funcName, Opcode.ADD_I);
+            } else if (op == TokenType.MINUS) {
+                emit(funcName, Opcode.SUB_I);
             }
         }
         return type;
     }
-    private String analyseT(String funcName) throws CompileError {
+    private String analyseT(int funcName) throws CompileError {
+        CodeBuffer code = codeOf(funcName);
+        int start = code.size();
         String type = analyseF(funcName);
         while (true) {
             // 预读可能是运算符的 token
-            var op = peek();
-            if (op.getTokenType() != TokenType.MUL &&
-                    op.getTokenType() != TokenType.DIV) {
+            TokenType op = tokens.type(peek());
+            if (op != TokenType.MUL &&
+                    op != TokenType.DIV) {
                 break;
             }
             // 运算符
             next();
+            int rightStart = code.size();
             analyseF(funcName);
-            SymbolEntry function = symbolTable.get(funcName);
-            InstructionEntry[] instructionEntries = function.getInstructions();
-            int len = function.getInstructionLen();
+            if (isLiteral(code, start, rightStart) && isLiteral(code, rightStart, code.size())) {
+                long left = code.operand(start);
+                long right = code.operand(rightStart);
+                // 除以 0 和溢出的除法留到运行时
+                if (op == TokenType.MUL || (right != 0 && !(left == Long.MIN_VALUE && right == -1))) {
+                    code.truncate(start);
+                    emit(funcName, Opcode.PUSH, op == TokenType.MUL ? left * right : left / right);
+                    continue;
+                }
+            }
             // 生成代码
-            if (op.getTokenType() == TokenType.MUL) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("multi");
-                instructionEntries[len++] = instructionEntry1;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
-            } else if (op.getTokenType() == TokenType.DIV) {
-                InstructionEntry instructionEntry1 = new InstructionEntry("divi");
-                instructionEntries[len++] = instructionEntry1;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
+            if (op == TokenType.MUL) {
+                emit(funcName, Opcode.MUL_I);
+            } else if (op == TokenType.DIV) {
+                emit(funcName, Opcode.DIV_I);
             }
         }
         return type;
     }
-    private String analyseF(String funcName) throws CompileError {
+    private String analyseF(int funcName) throws CompileError {
         String type = analyseA(funcName);
         if(check(TokenType.AS_KW)) {
             expect(TokenType.AS_KW);
@@ -844,43 +1054,46 @@ public final class Analyser {
         }
         return type;
     }
-    private String analyseA(String funcName) throws CompileError {
+    private String analyseA(int funcName) throws CompileError {
         String type;
         int minusCount = 0;
         while(check(TokenType.MINUS)){
             minusCount++;
             expect(TokenType.MINUS);
         }
+        CodeBuffer code = codeOf(funcName);
+        int start = code.size();
         type = analyseI(funcName);
+        if(minusCount > 0 && isLiteral(code, start, code.size())){
+            long value = code.operand(start);
+            code.setOperand(start, minusCount % 2 == 0 ? value : -value);
+            return type;
+        }
         for(int i = 0;i < minusCount;i++){
-            SymbolEntry function = symbolTable.get(funcName);
-            InstructionEntry[] instructionEntries = function.getInstructions();
-            int len = function.getInstructionLen();
             // 生成代码
-            InstructionEntry instructionEntry1 = new InstructionEntry("negi");
-            instructionEntries[len++] = instructionEntry1;
-            function.setInstructionLen(len);
-            function.setInstructions(instructionEntries);
+            emit(funcName, Opcode.NEG_I);
         }
         return type;
     }
-    private String analyseI(String funcName) throws CompileError {
+    private String analyseI(int funcName) throws CompileError {
         if(check(TokenType.IDENT)){
-            Token nameToken = expect(TokenType.IDENT);
-            String name = nameToken.getValueString();
+            int nameToken = expect(TokenType.IDENT);
+            int name = tokens.nameId(nameToken);
             var entry = this.symbolTable.get(name);
-            if (entry == null) {
-                throw new AnalyzeError(ErrorCode.NotDeclared, nameToken.getStartPos());
+            // 并行分析时全局声明已经登记全了，在这里之后才声明的仍然不可见
+            if (entry == null || (entry.getLayer() == 0 && entry.declaredAt > nameToken)) {
+                throw new AnalyzeError(ErrorCode.NotDeclared, tokens.startPos(nameToken));
             }
             //调用函数（解决一下标准库的问题）
             if(check(TokenType.L_PAREN)){
                 if(!entry.getType().equals("func")){
-                    throw new AnalyzeError(ErrorCode.NotDeclared, nameToken.getStartPos());
+                    throw new AnalyzeError(ErrorCode.NotDeclared, tokens.startPos(nameToken));
                 }
-                String callOrcallname = "call";
+                Opcode callOrcallname = Opcode.CALL;
                 boolean isLib = false;
-                if(name.equals("getint") || name.equals("getdouble") || name.equals("getchar") || name.equals("putint") || name.equals("putchar") || name.equals("putdouble") || name.equals("putstr") || name.equals("putln")){
-                    callOrcallname = "callname";
+                //标准库函数的编号是 0 到 7
+                if(funcIndex.get(name) < 8){
+                    callOrcallname = Opcode.CALLNAME;
                     isLib = true;
                 }
                 expect(TokenType.L_PAREN);
@@ -888,216 +1101,135 @@ public final class Analyser {
                 //有参数
                 if(!check(TokenType.R_PAREN)){
                     hasParam = true;
-                    SymbolEntry function = symbolTable.get(funcName);
                     if(entry.getReturnType().equals("void")){
-                        InstructionEntry[] instructionEntries = function.getInstructions();
-                        int len = function.getInstructionLen();
-                        InstructionEntry instructionEntry1 = new InstructionEntry("stackalloc", 0);
-                        instructionEntries[len++] = instructionEntry1;
-                        function.setInstructionLen(len);
-                        function.setInstructions(instructionEntries);
+                        emit(funcName, Opcode.STACKALLOC, 0);
                         analyseCallParamList(funcName);
                     }
                     else if(entry.getReturnType().equals("int")){
-                        InstructionEntry[] instructionEntries = function.getInstructions();
-                        int len = function.getInstructionLen();
-                        InstructionEntry instructionEntry1 = new InstructionEntry("stackalloc", 1);
-                        instructionEntries[len++] = instructionEntry1;
-                        function.setInstructionLen(len);
-                        function.setInstructions(instructionEntries);
+                        emit(funcName, Opcode.STACKALLOC, 1);
                         analyseCallParamList(funcName);
                     }
                 }
                 expect(TokenType.R_PAREN);
                 String returnType = entry.getReturnType();
                 if(returnType.equals("int") && !hasParam){
-                    SymbolEntry function = symbolTable.get(funcName);
-                    InstructionEntry[] instructionEntries = function.getInstructions();
-                    int len = function.getInstructionLen();
                     // 生成代码
-                    InstructionEntry instructionEntry1 = new InstructionEntry("stackalloc", 1);
-                    instructionEntries[len++] = instructionEntry1;
-                    InstructionEntry instructionEntry2;
+                    emit(funcName, Opcode.STACKALLOC, 1);
                     if(isLib){
-                        instructionEntry2 = new InstructionEntry(callOrcallname, funcIndex.get(name));
+                        emit(funcName, callOrcallname, funcIndex.get(name));
                     }
                     else{
-                        instructionEntry2 = new InstructionEntry(callOrcallname, funcIndex.get(name) - 8);
+                        emit(funcName, callOrcallname, funcIndex.get(name) - 8);
                     }
-                    instructionEntries[len++] = instructionEntry2;
-                    function.setInstructionLen(len);
-                    function.setInstructions(instructionEntries);
                 }
                 else if(returnType.equals("void") && !hasParam){
-                    SymbolEntry function = symbolTable.get(funcName);
-                    InstructionEntry[] instructionEntries = function.getInstructions();
-                    int len = function.getInstructionLen();
                     // 生成代码
-                    InstructionEntry instructionEntry1 = new InstructionEntry("stackalloc", 0);
-                    instructionEntries[len++] = instructionEntry1;
-                    InstructionEntry instructionEntry2;
+                    emit(funcName, Opcode.STACKALLOC, 0);
                     if(isLib){
-                        instructionEntry2 = new InstructionEntry(callOrcallname, funcIndex.get(name));
+                        emit(funcName, callOrcallname, funcIndex.get(name));
                     }
                     else{
-                        instructionEntry2 = new InstructionEntry(callOrcallname, funcIndex.get(name) - 8);
+                        emit(funcName, callOrcallname, funcIndex.get(name) - 8);
                     }
-                    instructionEntries[len++] = instructionEntry2;
-                    function.setInstructionLen(len);
-                    function.setInstructions(instructionEntries);
                 }
                 else{
-                    SymbolEntry function = symbolTable.get(funcName);
-                    InstructionEntry[] instructionEntries = function.getInstructions();
-                    int len = function.getInstructionLen();
                     // 生成代码
-                    InstructionEntry instructionEntry2;
                     if(isLib){
-                        instructionEntry2 = new InstructionEntry(callOrcallname, funcIndex.get(name));
+                        emit(funcName, callOrcallname, funcIndex.get(name));
                     }
                     else{
-                        instructionEntry2 = new InstructionEntry(callOrcallname, funcIndex.get(name) - 8);
+                        emit(funcName, callOrcallname, funcIndex.get(name) - 8);
                     }
-                    instructionEntries[len++] = instructionEntry2;
-                    function.setInstructionLen(len);
-                    function.setInstructions(instructionEntries);
                 }
                 return returnType;
             }
             //赋值
             else if(check(TokenType.ASSIGN)){
                 if(!entry.getType().equals("int")){
-                    throw new AnalyzeError(ErrorCode.NotDeclared, nameToken.getStartPos());
+                    throw new AnalyzeError(ErrorCode.NotDeclared, tokens.startPos(nameToken));
                 }
                 if(entry.isConstant()){
-                    throw new AnalyzeError(ErrorCode.AssignToConstant, nameToken.getStartPos());
+                    throw new AnalyzeError(ErrorCode.AssignToConstant, tokens.startPos(nameToken));
                 }
                 expect(TokenType.ASSIGN);
-                SymbolEntry function = symbolTable.get(funcName);
-                InstructionEntry[] instructionEntries = function.getInstructions();
-                int len = function.getInstructionLen();
+                SymbolEntry function = symbolTable.getGlobal(funcName);
                 // 生成代码
-                HashMap<String, Integer> localVars = function.getLocalVars();
-                HashMap<String, Integer> argVars = function.getArgVars();
+                int thisIndex = entry.getStackOffset();
                 if(entry.isParam){
                     if(function.getReturnType().equals("void")){
-                        int thisIndex = argVars.get(name);
-                        InstructionEntry instructionEntry1 = new InstructionEntry("arga", thisIndex - 1);
-                        instructionEntries[len++] = instructionEntry1;
+                        emit(funcName, Opcode.ARGA, thisIndex - 1);
                     }
                     else{
-                        int thisIndex = argVars.get(name);
-                        InstructionEntry instructionEntry1 = new InstructionEntry("arga", thisIndex);
-                        instructionEntries[len++] = instructionEntry1;
+                        emit(funcName, Opcode.ARGA, thisIndex);
                     }
                 }
+                else if(entry.getLayer() == 0){
+                    emit(funcName, Opcode.GLOBA, thisIndex);
+                }
                 else{
-                    try{
-                        int thisIndex = localVars.get(name);
-                        InstructionEntry instructionEntry1 = new InstructionEntry("loca", thisIndex);
-                        instructionEntries[len++] = instructionEntry1;
-                    }catch (NullPointerException n){
-                        int thisIndex = globaVarIndex.get(name);
-                        InstructionEntry instructionEntry1 = new InstructionEntry("globa", thisIndex);
-                        instructionEntries[len++] = instructionEntry1;
-                    }
+                    emit(funcName, Opcode.LOCA, thisIndex);
                 }
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
                 String type = analyseExpr(funcName);
                 if(type.equals("void")){
-                    throw new AnalyzeError(ErrorCode.InvalidAssignment, nameToken.getStartPos());
+                    throw new AnalyzeError(ErrorCode.InvalidAssignment, tokens.startPos(nameToken));
                 }
-                len = function.getInstructionLen();
                 // 生成代码
-                InstructionEntry instructionEntry2 = new InstructionEntry("store64");
-                instructionEntries[len++] = instructionEntry2;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
+                emit(funcName, Opcode.STORE_64);
                 return "void";
             }
             //变量名
             else{
-                SymbolEntry function = symbolTable.get(funcName);
-                InstructionEntry[] instructionEntries = function.getInstructions();
-                int len = function.getInstructionLen();
+                if(entry.isInlined()){
+                    emit(funcName, Opcode.PUSH, entry.getValue());
+                    return entry.getType();
+                }
+                SymbolEntry function = symbolTable.getGlobal(funcName);
                 // 生成代码
-                HashMap<String, Integer> localVars = function.getLocalVars();
-                HashMap<String, Integer> argVars = function.getArgVars();
+                int thisIndex = entry.getStackOffset();
                 if(entry.isParam){
                     if(function.getReturnType().equals("void")){
-                        int thisIndex = argVars.get(name);
-                        InstructionEntry instructionEntry1 = new InstructionEntry("arga", thisIndex - 1);
-                        instructionEntries[len++] = instructionEntry1;
+                        emit(funcName, Opcode.ARGA, thisIndex - 1);
                     }
                     else{
-                        int thisIndex = argVars.get(name);
-                        InstructionEntry instructionEntry1 = new InstructionEntry("arga", thisIndex);
-                        instructionEntries[len++] = instructionEntry1;
+                        emit(funcName, Opcode.ARGA, thisIndex);
                     }
                 }
+                else if(entry.getLayer() == 0){
+                    emit(funcName, Opcode.GLOBA, thisIndex);
+                }
                 else{
-                    try{
-                        int thisIndex = localVars.get(name);
-                        InstructionEntry instructionEntry1 = new InstructionEntry("loca", thisIndex);
-                        instructionEntries[len++] = instructionEntry1;
-                    }catch (NullPointerException n){
-                        int thisIndex = globaVarIndex.get(name);
-                        InstructionEntry instructionEntry1 = new InstructionEntry("globa", thisIndex);
-                        instructionEntries[len++] = instructionEntry1;
-                    }
+                    emit(funcName, Opcode.LOCA, thisIndex);
                 }
-                InstructionEntry instructionEntry2 = new InstructionEntry("load64");
-                instructionEntries[len++] = instructionEntry2;
-                function.setInstructionLen(len);
-                function.setInstructions(instructionEntries);
+                emit(funcName, Opcode.LOAD_64);
                 return entry.getType();
             }
         }
         else if(check(TokenType.UINT_LITERAL)){
-            var token = expect(TokenType.UINT_LITERAL);
-            SymbolEntry function = symbolTable.get(funcName);
-            InstructionEntry[] instructionEntries = function.getInstructions();
-            int len = function.getInstructionLen();
+            int token = expect(TokenType.UINT_LITERAL);
             // 生成代码
-            InstructionEntry instructionEntry1 = new InstructionEntry("push", (int)token.getValue());
-            instructionEntries[len++] = instructionEntry1;
-            function.setInstructionLen(len);
-            function.setInstructions(instructionEntries);
+            emit(funcName, Opcode.PUSH, tokens.intValue(token));
             return "int";
         }
         else if(check(TokenType.STRING_LITERAL)){
-            var token = expect(TokenType.STRING_LITERAL);
-            String value = (String)token.getValue();
-            //计算全局变量数
-            int globalVarsNum = calcGlobalVars();
-            SymbolEntry function = symbolTable.get(funcName);
-            InstructionEntry[] instructionEntries = function.getInstructions();
-            int len = function.getInstructionLen();
+            int token = expect(TokenType.STRING_LITERAL);
+            if(parent != null){
+                // 预扫描时已经加入了符号表
+                emit(funcName, Opcode.PUSH_STR, stringSlots.get(token));
+                return "int";
+            }
             // 生成代码
-            InstructionEntry instructionEntry1 = new InstructionEntry("push", globalVarsNum);
-            instructionEntries[len++] = instructionEntry1;
-            function.setInstructionLen(len);
-            function.setInstructions(instructionEntries);
-            //加入符号表
-            addSymbol(value, "string", "returnType", 0,true, true, token.getStartPos());
+            emit(funcName, Opcode.PUSH_STR, internString(tokens.stringValue(token)));
             return "int";
         }
         else if(check(TokenType.CHAR_LITERAL)){
-            var token = expect(TokenType.CHAR_LITERAL);
-            SymbolEntry function = symbolTable.get(funcName);
-            InstructionEntry[] instructionEntries = function.getInstructions();
-            int len = function.getInstructionLen();
+            int token = expect(TokenType.CHAR_LITERAL);
             // 生成代码
-            String charStr = (String)token.getValue();
+            String charStr = tokens.stringValue(token);
             char charCh = 0;
             for(int i = 0;i < charStr.length();i++){
                 charCh = charStr.charAt(i);
             }
-            InstructionEntry instructionEntry1 = new InstructionEntry("push", charCh);
-            instructionEntries[len++] = instructionEntry1;
-            function.setInstructionLen(len);
-            function.setInstructions(instructionEntries);
+            emit(funcName, Opcode.PUSH, charCh);
             return "int";
         }
         else if(check(TokenType.DOUBLE_LITERAL)){
@@ -1112,23 +1244,21 @@ public final class Analyser {
         }
         return "null";
     }
-    private void analyseCallParamList(String funcName) throws CompileError{
+    private void analyseCallParamList(int funcName) throws CompileError{
         analyseExpr(funcName);
         while(check(TokenType.COMMA)){
             expect(TokenType.COMMA);
             analyseExpr(funcName);
         }
     }
-    private int calcGlobalVars(){
-        int globalVars = 0;
-        Iterator iter = symbolTable.entrySet().iterator();
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            SymbolEntry symbolEntry = (SymbolEntry) entry.getValue();
-            if(!symbolEntry.getType().equals("func") && symbolEntry.getLayer() == 0){
-                globalVars++;
-            }
+    /**
+     * 字符串常量的槽位，内容相同的字符串共用一个
+     */
+    private int internString(String value){
+        int slot = stringPool.intern(value, globalSlots);
+        if(slot == globalSlots){
+            globalSlots++;
         }
-        return globalVars;
+        return slot;
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package analyser;
+
+import instruction.Opcode;
+import java.util.Arrays;
+
+/**
+ * 一个函数的指令序列
+ * 只有函数才有，容量不够时翻倍增长，没有长度上限
+ * 指令按列存放：ops 里是 Opcode 的序号，operands 里是操作数，每条指令 9 个字节
+ */
+public class CodeBuffer {
+    private byte[] ops;
+    private long[] operands;
+    private int len = 0;
+
+    public CodeBuffer() {
+        this(16);
+    }
+
+    public CodeBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ops = new byte[capacity];
+        operands = new long[capacity];
+    }
+
+    /**
+     * 在末尾添加一条没有操作数的指令
+     */
+    public void emit(Opcode op) {
+        emit(op, 0);
+    }
+
+    /**
+     * 在末尾添加一条指令
+     */
+    public void emit(Opcode op, long operand) {
+        if (len == ops.length) {
+            ops = Arrays.copyOf(ops, len * 2);
+            operands = Arrays.copyOf(operands, len * 2);
+        }
+        ops[len] = (byte) op.ordinal();
+        operands[len] = operand;
+        len++;
+    }
+
+    /**
+     * 在末尾添加一条跳到 label 的跳转指令，label 还没绑定时先记下来，绑定时回填偏移
+     */
+    public void emitBranch(Opcode op, Label label) {
+        if (label.isBound()) {
+            emit(op, label.pos - len - 1);
+        } else {
+            label.addFixup(len);
+            emit(op, 0);
+        }
+    }
+
+    /**
+     * 把 label 绑定到下一条指令上，并回填之前跳到这里的指令
+     */
+    public void bindLabel(Label label) {
+        label.pos = len;
+        for (int i = 0; i < label.fixupCount; i++) {
+            int site = label.fixups[i];
+            operands[site] = label.pos - site - 1;
+        }
+        label.fixupCount = 0;
+    }
+
+    /**
+     * 删掉下标 length 及以后的指令
+     * 跳到这些指令、还没绑定的 label 要另外用 Label.discardFixups 处理
+     */
+    public void truncate(int length) {
+        len = length;
+    }
+
+    public Opcode opcode(int i) {
+        return Opcode.of(ops[i]);
+    }
+
+    public long operand(int i) {
+        return operands[i];
+    }
+
+    public void setOperand(int i, long operand) {
+        operands[i] = operand;
+    }
+
+    /**
+     * 最后一条指令，没有指令时返回 null
+     */
+    public Opcode lastOpcode() {
+        return len == 0 ? null : opcode(len - 1);
+    }
+
+    public int size() {
+        return len;
+    }
+
+    /**
+     * 第 i 条指令的文本形式，调试输出用
+     */
+    public String toString(int i) {
+        Opcode op = opcode(i);
+        return op.hasOperand() ? op + "(" + operands[i] + ")" : op.toString();
+    }
+}
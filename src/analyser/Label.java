@@ -0,0 +1,41 @@
+package analyser;
+
+import java.util.Arrays;
+
+/**
+ * 跳转目标
+ * 绑定之前生成的跳转指令先记在回填表里，绑定时再一起填上偏移；
+ * 绑定之后生成的跳转指令直接算出偏移
+ */
+public class Label {
+    // 绑定到的指令下标，-1 表示还没绑定
+    int pos = -1;
+
+    // 等待回填的跳转指令的下标
+    int[] fixups = new int[4];
+    int fixupCount = 0;
+
+    public boolean isBound() {
+        return pos >= 0;
+    }
+
+    void addFixup(int site) {
+        if (fixupCount == fixups.length) {
+            fixups = Arrays.copyOf(fixups, fixupCount * 2);
+        }
+        fixups[fixupCount++] = site;
+    }
+
+    /**
+     * 丢掉下标 length 及以后的回填项，这些跳转指令已经被 CodeBuffer.truncate 删掉了
+     */
+    void discardFixups(int length) {
+        int kept = 0;
+        for (int i = 0; i < fixupCount; i++) {
+            if (fixups[i] < length) {
+                fixups[kept++] = fixups[i];
+            }
+        }
+        fixupCount = kept;
+    }
+}
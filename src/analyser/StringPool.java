@@ -0,0 +1,51 @@
+package analyser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 字符串常量池
+ * 内容相同的字符串常量只占一个全局变量；槽位和全局变量共用一个计数器，由 Analyser 分配
+ * 按第一次出现的顺序记录，遍历方式：for (int i = 0; i < size(); i++) value(i) / slot(i)
+ */
+public class StringPool {
+    // 内容 -> 槽位
+    private final HashMap<String, Integer> slots = new HashMap<>();
+
+    private String[] values = new String[16];
+    private int[] valueSlots = new int[16];
+    private int count = 0;
+
+    /**
+     * 查找 value 所在的槽位，第一次出现时放到 newSlot
+     */
+    public int intern(String value, int newSlot) {
+        Integer slot = slots.putIfAbsent(value, newSlot);
+        if (slot != null) {
+            return slot;
+        }
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+            valueSlots = Arrays.copyOf(valueSlots, count * 2);
+        }
+        values[count] = value;
+        valueSlots[count] = newSlot;
+        count++;
+        return newSlot;
+    }
+
+    /**
+     * 不同的字符串常量的个数
+     */
+    public int size() {
+        return count;
+    }
+
+    public String value(int i) {
+        return values[i];
+    }
+
+    public int slot(int i) {
+        return valueSlots[i];
+    }
+}
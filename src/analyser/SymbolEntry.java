@@ -1,44 +1,52 @@
 package analyser;
 
-import java.util.HashMap;
-
 public class SymbolEntry {
     String type;
     int layer;
     boolean isConstant;
     String returnType = null;
 
-    public InstructionEntry[] getInstructions() {
-        return instructions;
+    /**
+     * 函数的指令序列，不是函数（或者是标准库函数）时为 null
+     */
+    public CodeBuffer getCode() {
+        return code;
     }
 
-    public void setInstructions(InstructionEntry[] instrucions) {
-        this.instructions = instrucions;
+    public void setCode(CodeBuffer code) {
+        this.code = code;
     }
 
     boolean isValid = true;
-    InstructionEntry[] instructions = new InstructionEntry[1000];
-    int instructionLen = 0;
+    CodeBuffer code = null;
     int locaVarCount = 0;
     int argVarCount = 1;
-    HashMap<String, Integer> localVars = new HashMap<>();
-    HashMap<String, Integer> argVars = new HashMap<>();
     boolean isParam = false;
 
-    public int getArgVarCount() {
-        return argVarCount;
+    // 被这个声明遮蔽的外层同名声明，由 SymbolTable 维护
+    SymbolEntry shadowed = null;
+
+    // 声明处的 token 下标，标准库函数为 -1
+    int declaredAt = -1;
+
+    // 初始值在编译时就知道的常量：没有槽位，用到的地方直接 push value
+    boolean isInlined = false;
+    long value = 0;
+
+    public boolean isInlined() {
+        return isInlined;
     }
 
-    public void setArgVarCount(int argVarCount) {
-        this.argVarCount = argVarCount;
+    public long getValue() {
+        return value;
     }
 
-    public HashMap<String, Integer> getArgVars() {
-        return argVars;
+    public int getArgVarCount() {
+        return argVarCount;
     }
 
-    public void setArgVars(HashMap<String, Integer> argVars) {
-        this.argVars = argVars;
+    public void setArgVarCount(int argVarCount) {
+        this.argVarCount = argVarCount;
     }
 
     public boolean isParam() {
@@ -49,14 +57,6 @@ public class SymbolEntry {
         isParam = param;
     }
 
-    public HashMap<String, Integer> getLocalVars() {
-        return localVars;
-    }
-
-    public void setLocalVars(HashMap<String, Integer> localVars) {
-        this.localVars = localVars;
-    }
-
     public int getLocaVarCount() {
         return locaVarCount;
     }
@@ -65,14 +65,6 @@ public class SymbolEntry {
         this.locaVarCount = locaVarCount;
     }
 
-    public int getInstructionLen() {
-        return instructionLen;
-    }
-
-    public void setInstructionLen(int instructionLen) {
-        this.instructionLen = instructionLen;
-    }
-
     public boolean isValid() {
         return isValid;
     }
@@ -106,6 +98,7 @@ public class SymbolEntry {
     }
 
     boolean isInitialized;
+    // 变量的槽位：局部变量是 loca 的下标，参数是 arga 的下标，全局变量是 globa 的下标
     int stackOffset;
 
     /**
@@ -129,14 +122,14 @@ public class SymbolEntry {
         this.layer = layer;
         this.returnType = returnType;
     }
-    public SymbolEntry(String type, String returnType, InstructionEntry[] instructions, int layer, boolean isConstant, boolean isDeclared, int stackOffset) {
+    public SymbolEntry(String type, String returnType, CodeBuffer code, int layer, boolean isConstant, boolean isDeclared, int stackOffset) {
         this.isConstant = isConstant;
         this.isInitialized = isDeclared;
         this.stackOffset = stackOffset;
         this.type = type;
         this.layer = layer;
         this.returnType = returnType;
-        this.instructions = instructions;
+        this.code = code;
     }
 
     /**
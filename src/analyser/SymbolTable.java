@@ -0,0 +1,138 @@
+package analyser;
+
+import java.util.Arrays;
+import util.IntMap;
+
+/**
+ * 带作用域的符号表
+ * 每个名字在 bindings 里只保存最内层的声明，被它遮蔽的外层声明挂在 SymbolEntry.shadowed 上；
+ * 每个作用域里声明过的名字记在 undo log 里，退出作用域时按 log 恢复被遮蔽的声明。
+ * 声明、查找、退出作用域的均摊代价都是 O(1)
+ */
+public class SymbolTable {
+    // 名字 -> 最内层的声明
+    private final IntMap<SymbolEntry> bindings = new IntMap<>(64);
+
+    // 全局作用域中的声明，按声明的顺序排列，从不删除
+    private final IntMap<SymbolEntry> globals;
+
+    // 依次记录在非全局作用域中声明的名字
+    private int[] log = new int[64];
+    private int logSize = 0;
+
+    // 每个作用域开始时 log 的长度
+    private int[] marks = new int[16];
+    private int depth = 0;
+
+    public SymbolTable() {
+        this.globals = new IntMap<>(64);
+    }
+
+    /**
+     * 共用 globalScope 的全局声明、但有自己的局部作用域的符号表
+     * 并行分析函数体时每个函数一个，全局声明只读，不能再往里面添加
+     */
+    public SymbolTable(SymbolTable globalScope) {
+        this.globals = globalScope.globals;
+    }
+
+    /**
+     * 当前的层次，0 是全局作用域
+     */
+    public int depth() {
+        return depth;
+    }
+
+    public void enterScope() {
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, depth * 2);
+        }
+        marks[depth++] = logSize;
+    }
+
+    /**
+     * 退出当前作用域，撤销其中所有的声明
+     */
+    public void exitScope() {
+        int mark = marks[--depth];
+        while (logSize > mark) {
+            int name = log[--logSize];
+            SymbolEntry entry = bindings.get(name);
+            if (entry.shadowed != null) {
+                bindings.put(name, entry.shadowed);
+            } else {
+                bindings.remove(name);
+            }
+        }
+    }
+
+    /**
+     * 在当前作用域中声明一个符号
+     *
+     * @return 如果当前作用域中已经声明过同名的符号则返回 false
+     */
+    public boolean declare(int name, SymbolEntry entry) {
+        SymbolEntry outer = get(name);
+        if (outer != null && outer.getLayer() == depth) {
+            return false;
+        }
+        entry.setLayer(depth);
+        entry.shadowed = outer;
+        bindings.put(name, entry);
+        if (depth == 0) {
+            globals.put(name, entry);
+        } else {
+            if (logSize == log.length) {
+                log = Arrays.copyOf(log, logSize * 2);
+            }
+            log[logSize++] = name;
+        }
+        return true;
+    }
+
+    /**
+     * 不管当前在哪一层，都在全局作用域中声明一个符号
+     *
+     * @return 如果全局作用域中已经声明过同名的符号则返回 false
+     */
+    public boolean declareGlobal(int name, SymbolEntry entry) {
+        if (globals.containsKey(name)) {
+            return false;
+        }
+        entry.setLayer(0);
+        globals.put(name, entry);
+        SymbolEntry inner = bindings.get(name);
+        while (inner != null && inner.shadowed != null) {
+            inner = inner.shadowed;
+        }
+        if (inner == null) {
+            bindings.put(name, entry);
+        } else {
+            // 被局部变量遮蔽着，挂到遮蔽链的最底下
+            inner.shadowed = entry;
+        }
+        return true;
+    }
+
+    /**
+     * 查找名字当前可见的声明
+     */
+    public SymbolEntry get(int name) {
+        SymbolEntry entry = bindings.get(name);
+        return entry != null ? entry : globals.get(name);
+    }
+
+    /**
+     * 查找名字的全局声明，忽略遮蔽它的局部变量
+     */
+    public SymbolEntry getGlobal(int name) {
+        return globals.get(name);
+    }
+
+    /**
+     * 全局作用域中的所有声明，按声明的顺序排列，遍历方式同 IntMap
+     */
+    public IntMap<SymbolEntry> getGlobals() {
+        return globals;
+    }
+}
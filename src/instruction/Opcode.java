@@ -0,0 +1,79 @@
+package instruction;
+
+/**
+ * navm 虚拟机（o0 格式）的指令
+ * 每条指令带着它的字节码和操作数的字节数，0 表示没有操作数
+ */
+public enum Opcode {
+    NOP(0x00, 0, "nop"),
+    PUSH(0x01, 8, "push"),
+    // 压入字符串常量在全局变量表中的下标，写出时就是 push；单独列出来，优化时才能找到对字符串的引用
+    PUSH_STR(0x01, 8, "push"),
+    POP(0x02, 0, "pop"),
+    POPN(0x03, 4, "popn"),
+    DUP(0x04, 0, "dup"),
+    LOCA(0x0a, 4, "loca"),
+    ARGA(0x0b, 4, "arga"),
+    GLOBA(0x0c, 4, "globa"),
+    LOAD_64(0x13, 0, "load.64"),
+    STORE_64(0x17, 0, "store.64"),
+    STACKALLOC(0x1a, 4, "stackalloc"),
+    ADD_I(0x20, 0, "add.i"),
+    SUB_I(0x21, 0, "sub.i"),
+    MUL_I(0x22, 0, "mul.i"),
+    DIV_I(0x23, 0, "div.i"),
+    NOT(0x2e, 0, "not"),
+    CMP_I(0x30, 0, "cmp.i"),
+    NEG_I(0x34, 0, "neg.i"),
+    SET_LT(0x39, 0, "set.lt"),
+    SET_GT(0x3a, 0, "set.gt"),
+    BR(0x41, 4, "br"),
+    BR_FALSE(0x42, 4, "br.false"),
+    BR_TRUE(0x43, 4, "br.true"),
+    CALL(0x48, 4, "call"),
+    RET(0x49, 0, "ret"),
+    CALLNAME(0x4a, 4, "callname");
+
+    private static final Opcode[] VALUES = values();
+
+    private final byte code;
+    private final int operandWidth;
+    private final String mnemonic;
+
+    Opcode(int code, int operandWidth, String mnemonic) {
+        this.code = (byte) code;
+        this.operandWidth = operandWidth;
+        this.mnemonic = mnemonic;
+    }
+
+    /**
+     * 序号为 ordinal 的指令，不需要每次都复制 values()
+     */
+    public static Opcode of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * 操作数的字节数：0、4 或 8
+     */
+    public int getOperandWidth() {
+        return operandWidth;
+    }
+
+    public boolean hasOperand() {
+        return operandWidth != 0;
+    }
+
+    public boolean isBranch() {
+        return this == BR || this == BR_FALSE || this == BR_TRUE;
+    }
+
+    @Override
+    public String toString() {
+        return mnemonic;
+    }
+}
@@ -0,0 +1,93 @@
+package ir;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基本块：中间没有跳转、也不会从中间跳进来的一段指令
+ * 块内的指令放在 body 里，块末尾的跳转（或 ret）单独放在 terminator 里，跳转目标是块而不是偏移
+ */
+public class BasicBlock {
+    final int id;
+
+    // 块内除最后的跳转以外的指令
+    final CodeBuffer body = new CodeBuffer();
+
+    // br、br.true、br.false、ret，或者 null 表示顺序执行到 next
+    Opcode terminator = null;
+
+    // 跳转的目标块，terminator 是 br / br.true / br.false 时才有
+    BasicBlock target = null;
+
+    // 条件不成立或没有 terminator 时接着执行的块，terminator 是 br / ret 时为 null
+    BasicBlock next = null;
+
+    // 前驱块，由 ControlFlowGraph.computePredecessors 计算
+    final List<BasicBlock> predecessors = new ArrayList<>();
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public CodeBuffer getBody() {
+        return body;
+    }
+
+    public Opcode getTerminator() {
+        return terminator;
+    }
+
+    public BasicBlock getTarget() {
+        return target;
+    }
+
+    public BasicBlock getNext() {
+        return next;
+    }
+
+    /**
+     * 换掉块末尾的跳转，op 为 br / ret 时 next 应为 null
+     */
+    public void setTerminator(Opcode op, BasicBlock target, BasicBlock next) {
+        this.terminator = op;
+        this.target = target;
+        this.next = next;
+    }
+
+    /**
+     * 后继块：跳转目标在前，顺序执行的块在后
+     */
+    public List<BasicBlock> successors() {
+        List<BasicBlock> successors = new ArrayList<>(2);
+        if (target != null) {
+            successors.add(target);
+        }
+        if (next != null && next != target) {
+            successors.add(next);
+        }
+        return successors;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * 包括 terminator 在内的指令条数
+     */
+    public int size() {
+        return body.size() + (terminator == null ? 0 : 1);
+    }
+
+    @Override
+    public String toString() {
+        return "B" + id;
+    }
+}
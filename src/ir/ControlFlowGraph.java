@@ -0,0 +1,253 @@
+package ir;
+
+import analyser.CodeBuffer;
+import analyser.Label;
+import instruction.Opcode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 一个函数的控制流图
+ * 由生成好的指令序列切分成基本块，块之间用 target / next 连接；
+ * blocks 的顺序就是输出时的排布顺序，第一个是入口，最后一个是空的出口块（跳到函数末尾的跳转都跳到它）。
+ * linearize() 按排布顺序写回指令序列，重新计算所有跳转偏移
+ */
+public class ControlFlowGraph {
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private int nextId = 0;
+
+    private ControlFlowGraph() {
+    }
+
+    /**
+     * 把指令序列切分成基本块
+     * 块的开头是：第一条指令、跳转的目标、跳转或 ret 的下一条指令
+     */
+    public static ControlFlowGraph build(CodeBuffer code) {
+        int size = code.size();
+        boolean[] leader = new boolean[size + 1];
+        leader[0] = true;
+        leader[size] = true;
+        for (int i = 0; i < size; i++) {
+            Opcode op = code.opcode(i);
+            if (op.isBranch()) {
+                leader[(int) (i + 1 + code.operand(i))] = true;
+                leader[i + 1] = true;
+            } else if (op == Opcode.RET) {
+                leader[i + 1] = true;
+            }
+        }
+
+        ControlFlowGraph cfg = new ControlFlowGraph();
+        // 每个块开头的指令下标对应的块
+        BasicBlock[] blockAt = new BasicBlock[size + 1];
+        for (int i = 0; i <= size; i++) {
+            if (leader[i]) {
+                blockAt[i] = cfg.newBlock();
+                cfg.blocks.add(blockAt[i]);
+            }
+        }
+
+        int start = 0;
+        while (start < size) {
+            BasicBlock block = blockAt[start];
+            int end = start + 1;
+            while (!leader[end]) {
+                end++;
+            }
+            int last = end - 1;
+            Opcode op = code.opcode(last);
+            int bodyEnd = op.isBranch() || op == Opcode.RET ? last : end;
+            for (int i = start; i < bodyEnd; i++) {
+                block.body.emit(code.opcode(i), code.operand(i));
+            }
+            if (op.isBranch()) {
+                BasicBlock target = blockAt[(int) (last + 1 + code.operand(last))];
+                block.setTerminator(op, target, op == Opcode.BR ? null : blockAt[end]);
+            } else if (op == Opcode.RET) {
+                block.setTerminator(op, null, null);
+            } else {
+                block.setTerminator(null, null, blockAt[end]);
+            }
+            start = end;
+        }
+        cfg.computePredecessors();
+        return cfg;
+    }
+
+    /**
+     * 新建一个块，不放进排布顺序里
+     */
+    public BasicBlock newBlock() {
+        return new BasicBlock(nextId++);
+    }
+
+    /**
+     * 按排布顺序排列的所有块，可以直接修改（删除、调整顺序），但出口块要留在最后
+     */
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock entry() {
+        return blocks.get(0);
+    }
+
+    public BasicBlock exit() {
+        return blocks.get(blocks.size() - 1);
+    }
+
+    /**
+     * 块的编号都小于这个数，可以用作按编号索引的数组的长度
+     */
+    public int idBound() {
+        return nextId;
+    }
+
+    /**
+     * 修改了块之间的边以后重新计算前驱
+     */
+    public void computePredecessors() {
+        for (BasicBlock block : blocks) {
+            block.predecessors.clear();
+        }
+        for (BasicBlock block : blocks) {
+            for (BasicBlock successor : block.successors()) {
+                successor.predecessors.add(block);
+            }
+        }
+    }
+
+    /**
+     * 每个块的支配块集合（按编号索引，集合里也是块的编号）：从入口到这个块的每条路径都经过的块
+     * 入口到不了的块为 null
+     */
+    public BitSet[] dominators() {
+        BitSet[] dom = new BitSet[nextId];
+        BitSet all = new BitSet(nextId);
+        for (BasicBlock block : blocks) {
+            all.set(block.id);
+        }
+        // 先标出能到的块
+        BitSet reachable = new BitSet(nextId);
+        ArrayDeque<BasicBlock> work = new ArrayDeque<>();
+        reachable.set(entry().id);
+        work.push(entry());
+        while (!work.isEmpty()) {
+            for (BasicBlock successor : work.pop().successors()) {
+                if (!reachable.get(successor.id)) {
+                    reachable.set(successor.id);
+                    work.push(successor);
+                }
+            }
+        }
+        for (BasicBlock block : blocks) {
+            if (reachable.get(block.id)) {
+                dom[block.id] = (BitSet) all.clone();
+            }
+        }
+        dom[entry().id] = new BitSet(nextId);
+        dom[entry().id].set(entry().id);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : blocks) {
+                if (block == entry() || dom[block.id] == null) {
+                    continue;
+                }
+                BitSet next = (BitSet) all.clone();
+                for (BasicBlock predecessor : block.predecessors) {
+                    if (dom[predecessor.id] != null) {
+                        next.and(dom[predecessor.id]);
+                    }
+                }
+                next.set(block.id);
+                if (!next.equals(dom[block.id])) {
+                    dom[block.id] = next;
+                    changed = true;
+                }
+            }
+        }
+        return dom;
+    }
+
+    /**
+     * 指令总数（不算 linearize 时补上的 br）
+     */
+    public int instructionCount() {
+        int count = 0;
+        for (BasicBlock block : blocks) {
+            count += block.size();
+        }
+        return count;
+    }
+
+    /**
+     * 按排布顺序写回指令序列
+     * 跳到紧跟着的块的 br 省掉；next 不是紧跟着的块时补一条 br
+     */
+    public CodeBuffer linearize() {
+        Label[] labels = new Label[nextId];
+        for (BasicBlock block : blocks) {
+            labels[block.id] = new Label();
+        }
+        CodeBuffer code = new CodeBuffer(instructionCount());
+        for (int k = 0; k < blocks.size(); k++) {
+            BasicBlock block = blocks.get(k);
+            BasicBlock following = k + 1 < blocks.size() ? blocks.get(k + 1) : null;
+            code.bindLabel(labels[block.id]);
+            CodeBuffer body = block.body;
+            for (int i = 0; i < body.size(); i++) {
+                code.emit(body.opcode(i), body.operand(i));
+            }
+            if (block.terminator == Opcode.RET) {
+                code.emit(Opcode.RET);
+                continue;
+            }
+            if (block.terminator == Opcode.BR) {
+                if (block.target != following) {
+                    code.emitBranch(Opcode.BR, labels[block.target.id]);
+                }
+                continue;
+            }
+            if (block.terminator != null) {
+                code.emitBranch(block.terminator, labels[block.target.id]);
+            }
+            if (block.next != null && block.next != following) {
+                code.emitBranch(Opcode.BR, labels[block.next.id]);
+            }
+        }
+        return code;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (BasicBlock block : blocks) {
+            sb.append(block).append(":");
+            for (BasicBlock predecessor : block.predecessors) {
+                sb.append(" <- ").append(predecessor);
+            }
+            sb.append('\n');
+            for (int i = 0; i < block.body.size(); i++) {
+                sb.append("    ").append(block.body.toString(i)).append('\n');
+            }
+            if (block.terminator == Opcode.RET) {
+                sb.append("    ret\n");
+            } else if (block.terminator != null) {
+                sb.append("    ").append(block.terminator).append(' ').append(block.target);
+                if (block.next != null) {
+                    sb.append(" else ").append(block.next);
+                }
+                sb.append('\n');
+            } else if (block.next != null) {
+                sb.append("    -> ").append(block.next).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,110 @@
+package ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 控制流图里的自然循环
+ * 跳回到支配自己的块（header）的边是回边；header 加上不经过 header 就能走到回边起点的块，就是这个循环的块。
+ * 同一个 header 的几条回边（比如 continue）合成一个循环
+ */
+public class Loop {
+    private final BasicBlock header;
+
+    // 按块的编号索引
+    private final BitSet contains;
+
+    private final List<BasicBlock> blocks = new ArrayList<>();
+
+    private Loop(BasicBlock header, BitSet contains) {
+        this.header = header;
+        this.contains = contains;
+    }
+
+    /**
+     * 找出控制流图里的所有循环，按块数从少到多排列（里层循环在外层前面）
+     */
+    public static List<Loop> find(ControlFlowGraph cfg) {
+        BitSet[] dom = cfg.dominators();
+        List<Loop> loops = new ArrayList<>();
+        Loop[] loopOf = new Loop[cfg.idBound()];
+        for (BasicBlock block : cfg.getBlocks()) {
+            if (dom[block.id] == null) {
+                continue;
+            }
+            for (BasicBlock successor : block.successors()) {
+                if (!dom[block.id].get(successor.id)) {
+                    continue;
+                }
+                // block -> successor 是回边
+                Loop loop = loopOf[successor.id];
+                if (loop == null) {
+                    loop = new Loop(successor, new BitSet(cfg.idBound()));
+                    loop.contains.set(successor.id);
+                    loopOf[successor.id] = loop;
+                    loops.add(loop);
+                }
+                ArrayDeque<BasicBlock> work = new ArrayDeque<>();
+                if (!loop.contains.get(block.id)) {
+                    loop.contains.set(block.id);
+                    work.push(block);
+                }
+                while (!work.isEmpty()) {
+                    for (BasicBlock predecessor : work.pop().predecessors) {
+                        if (dom[predecessor.id] != null && !loop.contains.get(predecessor.id)) {
+                            loop.contains.set(predecessor.id);
+                            work.push(predecessor);
+                        }
+                    }
+                }
+            }
+        }
+        for (Loop loop : loops) {
+            for (BasicBlock block : cfg.getBlocks()) {
+                if (loop.contains.get(block.id)) {
+                    loop.blocks.add(block);
+                }
+            }
+        }
+        loops.sort((a, b) -> a.blocks.size() - b.blocks.size());
+        return loops;
+    }
+
+    public BasicBlock getHeader() {
+        return header;
+    }
+
+    public boolean contains(BasicBlock block) {
+        return contains.get(block.id);
+    }
+
+    /**
+     * 循环里的块，按排布顺序
+     */
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * 在 header 前面插入一个空的前置块：循环外跳到 header 的边都改成跳到它，它接着执行 header
+     * 前置块放在排布顺序里 header 的前面，原来顺序执行到 header 的块还是顺序执行到它
+     */
+    public BasicBlock insertPreheader(ControlFlowGraph cfg) {
+        BasicBlock preheader = cfg.newBlock();
+        preheader.setTerminator(null, null, header);
+        for (BasicBlock predecessor : new ArrayList<>(header.predecessors)) {
+            if (contains(predecessor)) {
+                continue;
+            }
+            BasicBlock target = predecessor.target == header ? preheader : predecessor.target;
+            BasicBlock next = predecessor.next == header ? preheader : predecessor.next;
+            predecessor.setTerminator(predecessor.terminator, target, next);
+        }
+        List<BasicBlock> order = cfg.getBlocks();
+        order.add(order.indexOf(header), preheader);
+        cfg.computePredecessors();
+        return preheader;
+    }
+}
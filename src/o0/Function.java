@@ -0,0 +1,47 @@
+package o0;
+
+import analyser.CodeBuffer;
+
+/**
+ * o0 文件中的一个函数
+ */
+public class Function {
+    int nameLoc;
+    int ret_slots;
+    int param_slots;
+    int loc_slots;
+    int body_count;
+    CodeBuffer code;
+    public Function(int nameLoc, int ret_slots, int param_slots, int loc_slots, int body_count, CodeBuffer code){
+        this.nameLoc = nameLoc;
+        this.ret_slots = ret_slots;
+        this.param_slots = param_slots;
+        this.loc_slots = loc_slots;
+        this.body_count = body_count;
+        this.code = code;
+    }
+
+    public int getNameLoc() {
+        return nameLoc;
+    }
+
+    public int getRetSlots() {
+        return ret_slots;
+    }
+
+    public int getParamSlots() {
+        return param_slots;
+    }
+
+    public int getLocSlots() {
+        return loc_slots;
+    }
+
+    public int getBodyCount() {
+        return body_count;
+    }
+
+    public CodeBuffer getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,28 @@
+package o0;
+
+/**
+ * o0 文件中的一个全局变量
+ * valueItem 为 "0" 时表示 8 个字节的 0（普通的全局变量），否则是字符串常量或函数名的内容
+ */
+public class Global {
+    int isConst;
+    int valueCount;
+    String valueItem;
+    public Global(int isConst, int valueCount, String valueItem){
+        this.isConst = isConst;
+        this.valueCount = valueCount;
+        this.valueItem = valueItem;
+    }
+
+    public int getIsConst() {
+        return isConst;
+    }
+
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    public String getValueItem() {
+        return valueItem;
+    }
+}
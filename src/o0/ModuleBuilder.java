@@ -0,0 +1,72 @@
+package o0;
+
+import analyser.Analyser;
+import analyser.StringPool;
+import analyser.SymbolEntry;
+import tokenizer.NameTable;
+import util.IntMap;
+
+/**
+ * 根据语法分析的结果排出 o0 文件的全局变量表和函数表
+ * 全局变量表里先是全局变量和字符串常量（按 Analyser 分配的槽位排列，不包括内联了的常量），然后是按函数编号排列的函数名；
+ * 函数表从 _start 开始，标准库函数不在函数表里
+ */
+public class ModuleBuilder {
+    // 标准库函数的个数，它们的编号是 0 到 7，_start 是 8
+    private static final int LIBRARY_FUNCTIONS = 8;
+
+    public static ModuleWriter build(Analyser an) {
+        IntMap<SymbolEntry> symbolTable = an.getSymbolTable();
+        IntMap<Integer> funcIndex = an.getFuncIndex();
+        NameTable names = an.getNames();
+        StringPool stringPool = an.getStringPool();
+
+        int varCount = an.getGlobalSlotCount();
+        int funcCount = 0;
+        for (int k = 0; k < symbolTable.entryCount(); k++) {
+            SymbolEntry symbolEntry = symbolTable.valueAt(k);
+            if (symbolEntry != null && symbolEntry.getType().equals("func")) {
+                funcCount++;
+            }
+        }
+
+        Global[] globals = new Global[varCount + funcCount];
+        SymbolEntry[] funcEntries = new SymbolEntry[funcCount];
+        for (int i = 0; i < stringPool.size(); i++) {
+            String value = stringPool.value(i);
+            globals[stringPool.slot(i)] = new Global(1, value.length(), value);
+        }
+        for (int k = 0; k < symbolTable.entryCount(); k++) {
+            SymbolEntry symbolEntry = symbolTable.valueAt(k);
+            // 内联了的常量没有槽位
+            if (symbolEntry == null || symbolEntry.isInlined()) {
+                continue;
+            }
+            if (symbolEntry.getType().equals("func")) {
+                String name = names.name(symbolTable.keyAt(k));
+                int index = funcIndex.get(symbolTable.keyAt(k));
+                globals[varCount + index] = new Global(1, name.length(), name);
+                funcEntries[index] = symbolEntry;
+            } else {
+                globals[symbolEntry.getStackOffset()] = new Global(symbolEntry.isConstant() ? 1 : 0, 8, "0");
+            }
+        }
+
+        Function[] functions = new Function[funcCount - LIBRARY_FUNCTIONS];
+        for (int index = LIBRARY_FUNCTIONS; index < funcCount; index++) {
+            SymbolEntry funcEntry = funcEntries[index];
+            int nameLoc = varCount + index;
+            int body_count = funcEntry.getCode().size();
+            if (index == LIBRARY_FUNCTIONS) {
+                // _start
+                functions[index - LIBRARY_FUNCTIONS] = new Function(nameLoc, 0, 0, 0, body_count, funcEntry.getCode());
+            } else {
+                int ret_slots = funcEntry.getReturnType().equals("int") ? 1 : 0;
+                int param_slots = funcEntry.getArgVarCount() - 1;
+                int loc_slots = funcEntry.getLocaVarCount();
+                functions[index - LIBRARY_FUNCTIONS] = new Function(nameLoc, ret_slots, param_slots, loc_slots, body_count, funcEntry.getCode());
+            }
+        }
+        return new ModuleWriter(globals, globals.length, functions, functions.length, varCount);
+    }
+}
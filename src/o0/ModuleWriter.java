@@ -0,0 +1,154 @@
+package o0;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 把全局变量表和函数表写成 o0 格式
+ * 先算出整个文件的字节数，再按大端序直接写进一块预先分配好的 ByteBuffer，不经过装箱的 List<Byte>
+ */
+public class ModuleWriter {
+    public static final int MAGIC = 0x72303b3e;
+    public static final int VERSION = 0x00000001;
+
+    private final Global[] globals;
+    private final int globalCount;
+    private final Function[] functions;
+    private final int functionCount;
+    // 第一个函数名在全局变量表中的下标，callname 的操作数要加上它
+    private final int functionNameBase;
+
+    public ModuleWriter(Global[] globals, int globalCount, Function[] functions, int functionCount, int functionNameBase) {
+        this.globals = globals;
+        this.globalCount = globalCount;
+        this.functions = functions;
+        this.functionCount = functionCount;
+        this.functionNameBase = functionNameBase;
+    }
+
+    public Global[] getGlobals() {
+        return globals;
+    }
+
+    public int getGlobalCount() {
+        return globalCount;
+    }
+
+    public Function[] getFunctions() {
+        return functions;
+    }
+
+    public int getFunctionCount() {
+        return functionCount;
+    }
+
+    /**
+     * 第一个函数名在全局变量表中的下标，也就是全局变量（包括字符串常量）的个数
+     */
+    public int getFunctionNameBase() {
+        return functionNameBase;
+    }
+
+    /**
+     * 整个文件的字节数
+     */
+    public int size() {
+        // magic, version, globals.count, functions.count
+        int size = 16;
+        for (int i = 0; i < globalCount; i++) {
+            // isConst, value count, value items
+            size += 1 + 4 + valueSize(globals[i]);
+        }
+        for (int i = 0; i < functionCount; i++) {
+            // name, ret_slots, param_slots, loc_slots, body_count
+            size += 20;
+            CodeBuffer code = functions[i].code;
+            for (int j = 0; j < functions[i].body_count; j++) {
+                size += 1 + code.opcode(j).getOperandWidth();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 把整个文件写进 buffer，buffer 的剩余空间至少要有 size() 个字节
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(globalCount);
+        for (int i = 0; i < globalCount; i++) {
+            Global global = globals[i];
+            buffer.put((byte) global.isConst);
+            if (global.valueItem.equals("0")) {
+                buffer.putInt(8);
+                buffer.putLong(0L);
+            } else {
+                buffer.putInt(global.valueCount);
+                String valueItem = global.valueItem;
+                for (int k = 0; k < valueItem.length(); k++) {
+                    buffer.put((byte) valueItem.charAt(k));
+                }
+            }
+        }
+        buffer.putInt(functionCount);
+        for (int i = 0; i < functionCount; i++) {
+            Function function = functions[i];
+            buffer.putInt(function.nameLoc);
+            buffer.putInt(function.ret_slots);
+            buffer.putInt(function.param_slots);
+            buffer.putInt(function.loc_slots);
+            buffer.putInt(function.body_count);
+            CodeBuffer code = function.code;
+            for (int j = 0; j < function.body_count; j++) {
+                Opcode op = code.opcode(j);
+                buffer.put(op.getCode());
+                if (op.getOperandWidth() == 8) {
+                    buffer.putLong(code.operand(j));
+                } else if (op.getOperandWidth() == 4) {
+                    int operand = (int) code.operand(j);
+                    if (op == Opcode.CALLNAME) {
+                        operand += functionNameBase;
+                    }
+                    buffer.putInt(operand);
+                }
+            }
+        }
+    }
+
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(size());
+        writeTo(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * 写到文件里，文件已存在时覆盖
+     *
+     * @return 写出的字节数
+     */
+    public int writeTo(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size());
+        writeTo(buffer);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return buffer.limit();
+    }
+
+    private static int valueSize(Global global) {
+        if (global.valueItem.equals("0")) {
+            return 8;
+        }
+        return global.valueItem.length();
+    }
+}
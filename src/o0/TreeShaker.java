@@ -0,0 +1,118 @@
+package o0;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+
+import java.util.ArrayDeque;
+
+/**
+ * 删掉整个程序里用不到的函数和全局变量
+ * 从 _start 出发，沿着 call 找到所有可能调用的函数，再看这些函数里的 callname、globa 和字符串常量的 push
+ * 用到了哪些全局变量；其余的函数、全局变量、字符串常量和函数名都不写出，剩下的按原来的顺序重新编号
+ */
+public class TreeShaker {
+    private int removedFunctions;
+    private int removedGlobals;
+
+    public ModuleWriter shake(ModuleWriter module) {
+        Global[] globals = module.getGlobals();
+        Function[] functions = module.getFunctions();
+        int globalCount = module.getGlobalCount();
+        int functionCount = module.getFunctionCount();
+        int functionNameBase = module.getFunctionNameBase();
+
+        boolean[] usedFunction = new boolean[functionCount];
+        boolean[] usedGlobal = new boolean[globalCount];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        // _start
+        usedFunction[0] = true;
+        work.push(0);
+        while (!work.isEmpty()) {
+            Function function = functions[work.pop()];
+            usedGlobal[function.nameLoc] = true;
+            CodeBuffer code = function.code;
+            for (int i = 0; i < function.body_count; i++) {
+                Opcode op = code.opcode(i);
+                int operand = (int) code.operand(i);
+                if (op == Opcode.CALL) {
+                    if (!usedFunction[operand]) {
+                        usedFunction[operand] = true;
+                        work.push(operand);
+                    }
+                } else if (op == Opcode.CALLNAME) {
+                    usedGlobal[functionNameBase + operand] = true;
+                } else if (op == Opcode.GLOBA || op == Opcode.PUSH_STR) {
+                    usedGlobal[operand] = true;
+                }
+            }
+        }
+
+        // 旧下标 -> 新下标
+        int[] globalIndex = new int[globalCount];
+        Global[] newGlobals = new Global[globalCount];
+        int newGlobalCount = 0;
+        int newFunctionNameBase = 0;
+        for (int i = 0; i < globalCount; i++) {
+            if (i == functionNameBase) {
+                newFunctionNameBase = newGlobalCount;
+            }
+            if (usedGlobal[i]) {
+                globalIndex[i] = newGlobalCount;
+                newGlobals[newGlobalCount++] = globals[i];
+            }
+        }
+        if (functionNameBase == globalCount) {
+            newFunctionNameBase = newGlobalCount;
+        }
+        int[] functionIndex = new int[functionCount];
+        int newFunctionCount = 0;
+        for (int i = 0; i < functionCount; i++) {
+            if (usedFunction[i]) {
+                functionIndex[i] = newFunctionCount++;
+            }
+        }
+
+        Function[] newFunctions = new Function[newFunctionCount];
+        for (int i = 0; i < functionCount; i++) {
+            if (!usedFunction[i]) {
+                continue;
+            }
+            Function function = functions[i];
+            CodeBuffer code = function.code;
+            CodeBuffer newCode = new CodeBuffer(function.body_count);
+            for (int j = 0; j < function.body_count; j++) {
+                Opcode op = code.opcode(j);
+                long operand = code.operand(j);
+                if (op == Opcode.CALL) {
+                    operand = functionIndex[(int) operand];
+                } else if (op == Opcode.CALLNAME) {
+                    // 写出时还要加上函数名的起始下标
+                    operand = globalIndex[functionNameBase + (int) operand] - newFunctionNameBase;
+                } else if (op == Opcode.GLOBA || op == Opcode.PUSH_STR) {
+                    operand = globalIndex[(int) operand];
+                }
+                newCode.emit(op, operand);
+            }
+            newFunctions[functionIndex[i]] = new Function(globalIndex[function.nameLoc], function.ret_slots,
+                    function.param_slots, function.loc_slots, function.body_count, newCode);
+        }
+
+        removedFunctions = functionCount - newFunctionCount;
+        removedGlobals = globalCount - newGlobalCount;
+        return new ModuleWriter(newGlobals, newGlobalCount, newFunctions, newFunctionCount, newFunctionNameBase);
+    }
+
+    /**
+     * 上一次 shake 删掉的函数个数
+     */
+    public int getRemovedFunctions() {
+        return removedFunctions;
+    }
+
+    /**
+     * 上一次 shake 删掉的全局变量、字符串常量和函数名个数
+     */
+    public int getRemovedGlobals() {
+        return removedGlobals;
+    }
+}
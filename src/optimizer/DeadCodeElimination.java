@@ -0,0 +1,113 @@
+package optimizer;
+
+import analyser.Analyser;
+import analyser.CodeBuffer;
+import analyser.SymbolEntry;
+import instruction.Opcode;
+import ir.BasicBlock;
+import ir.ControlFlowGraph;
+import tokenizer.NameTable;
+import util.IntMap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 死代码消除
+ * 在控制流图上从入口出发标记能执行到的块，删掉其余的块（return / break / continue 后面的代码、
+ * 每条路径都已经 return 了的 void 函数末尾补的 ret 等），再把只有一条 br 的空块短路掉
+ */
+public class DeadCodeElimination {
+    /**
+     * 处理语法分析生成的所有函数（包括 _start）
+     *
+     * @return 删掉了指令的函数的函数名 -> 删掉的指令条数，按符号表顺序排列
+     */
+    public Map<String, Integer> run(Analyser an) {
+        IntMap<SymbolEntry> symbolTable = an.getSymbolTable();
+        NameTable names = an.getNames();
+        Map<String, Integer> removedOf = new LinkedHashMap<>();
+        for (int k = 0; k < symbolTable.entryCount(); k++) {
+            SymbolEntry symbolEntry = symbolTable.valueAt(k);
+            if (symbolEntry == null || symbolEntry.getCode() == null) {
+                continue;
+            }
+            CodeBuffer code = symbolEntry.getCode();
+            CodeBuffer optimized = optimize(code);
+            int removed = code.size() - optimized.size();
+            if (removed != 0) {
+                removedOf.put(names.name(symbolTable.keyAt(k)), removed);
+            }
+            symbolEntry.setCode(optimized);
+        }
+        return removedOf;
+    }
+
+    public CodeBuffer optimize(CodeBuffer code) {
+        ControlFlowGraph cfg = ControlFlowGraph.build(code);
+        removeUnreachable(cfg);
+        collapseEmptyBlocks(cfg);
+        return cfg.linearize();
+    }
+
+    /**
+     * 删掉从入口到不了的块，出口块总是保留
+     */
+    static void removeUnreachable(ControlFlowGraph cfg) {
+        boolean[] reachable = new boolean[cfg.idBound()];
+        ArrayDeque<BasicBlock> work = new ArrayDeque<>();
+        reachable[cfg.entry().getId()] = true;
+        work.push(cfg.entry());
+        while (!work.isEmpty()) {
+            BasicBlock block = work.pop();
+            for (BasicBlock successor : block.successors()) {
+                if (!reachable[successor.getId()]) {
+                    reachable[successor.getId()] = true;
+                    work.push(successor);
+                }
+            }
+        }
+        BasicBlock exit = cfg.exit();
+        cfg.getBlocks().removeIf(block -> !reachable[block.getId()] && block != exit);
+        cfg.computePredecessors();
+    }
+
+    /**
+     * 没有指令、只是 br 或者直接落到下一个块的块：让前驱直接跳到它的后继，然后删掉它
+     * 入口块和出口块不动
+     */
+    static void collapseEmptyBlocks(ControlFlowGraph cfg) {
+        List<BasicBlock> blocks = cfg.getBlocks();
+        BasicBlock entry = cfg.entry();
+        BasicBlock exit = cfg.exit();
+        Iterator<BasicBlock> it = blocks.iterator();
+        while (it.hasNext()) {
+            BasicBlock block = it.next();
+            if (block == entry || block == exit || block.getBody().size() != 0) {
+                continue;
+            }
+            BasicBlock successor;
+            if (block.getTerminator() == Opcode.BR) {
+                successor = block.getTarget();
+            } else if (block.getTerminator() == null) {
+                successor = block.getNext();
+            } else {
+                continue;
+            }
+            // 空的死循环
+            if (successor == block) {
+                continue;
+            }
+            for (BasicBlock predecessor : block.getPredecessors()) {
+                BasicBlock target = predecessor.getTarget() == block ? successor : predecessor.getTarget();
+                BasicBlock next = predecessor.getNext() == block ? successor : predecessor.getNext();
+                predecessor.setTerminator(predecessor.getTerminator(), target, next);
+            }
+            it.remove();
+            cfg.computePredecessors();
+        }
+    }
+}
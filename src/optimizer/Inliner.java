@@ -0,0 +1,437 @@
+package optimizer;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+import o0.Function;
+import o0.ModuleWriter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 函数内联
+ * 把不超过 threshold 条指令、不会（直接或间接）递归的函数的函数体直接展开到调用处：
+ * 参数和被调函数的局部变量改到调用者新加的局部变量上，实参在求值后直接存进去；
+ * 函数体里的 ret 改成跳到展开代码的末尾，返回值从对应的局部变量里取出来，代替原来 stackalloc 留出的位置
+ * 被调函数先处理，所以它自己能内联的调用已经展开了
+ */
+public class Inliner {
+    public static final int DEFAULT_THRESHOLD = 32;
+
+    private final int threshold;
+    private Function[] functions;
+    private boolean[] recursive;
+    private int inlinedCount;
+
+    public Inliner() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold 能内联的函数最多有几条指令，0 表示不内联
+     */
+    public Inliner(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public ModuleWriter run(ModuleWriter module) {
+        int functionCount = module.getFunctionCount();
+        functions = Arrays.copyOf(module.getFunctions(), functionCount);
+        recursive = findRecursive();
+        inlinedCount = 0;
+        for (int caller : postOrder()) {
+            // 展开出来的代码里可能还有能内联的调用
+            boolean changed;
+            do {
+                changed = inlineCalls(caller);
+            } while (changed);
+        }
+        return new ModuleWriter(module.getGlobals(), module.getGlobalCount(), functions, functionCount, module.getFunctionNameBase());
+    }
+
+    /**
+     * 上一次 run 展开的调用个数
+     */
+    public int getInlinedCount() {
+        return inlinedCount;
+    }
+
+    private List<Integer> callees(int caller) {
+        List<Integer> callees = new ArrayList<>();
+        Function function = functions[caller];
+        for (int i = 0; i < function.getBodyCount(); i++) {
+            if (function.getCode().opcode(i) == Opcode.CALL) {
+                callees.add((int) function.getCode().operand(i));
+            }
+        }
+        return callees;
+    }
+
+    /**
+     * 在调用图上从自己出发能回到自己的函数
+     */
+    private boolean[] findRecursive() {
+        int n = functions.length;
+        List<List<Integer>> edges = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            edges.add(callees(k));
+        }
+        boolean[] result = new boolean[n];
+        for (int k = 0; k < n; k++) {
+            boolean[] visited = new boolean[n];
+            ArrayDeque<Integer> work = new ArrayDeque<>(edges.get(k));
+            while (!work.isEmpty() && !result[k]) {
+                int f = work.pop();
+                if (f == k) {
+                    result[k] = true;
+                } else if (!visited[f]) {
+                    visited[f] = true;
+                    work.addAll(edges.get(f));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 调用图的后序：被调函数排在调用者前面（递归的环随便断开）
+     */
+    private List<Integer> postOrder() {
+        int n = functions.length;
+        List<Integer> order = new ArrayList<>();
+        boolean[] visited = new boolean[n];
+        for (int root = 0; root < n; root++) {
+            if (visited[root]) {
+                continue;
+            }
+            // 栈里是 {函数, 下一个要看的被调函数的下标}
+            ArrayDeque<int[]> stack = new ArrayDeque<>();
+            List<List<Integer>> callees = new ArrayList<>(n);
+            for (int k = 0; k < n; k++) {
+                callees.add(null);
+            }
+            visited[root] = true;
+            stack.push(new int[]{root, 0});
+            while (!stack.isEmpty()) {
+                int[] top = stack.peek();
+                if (callees.get(top[0]) == null) {
+                    callees.set(top[0], callees(top[0]));
+                }
+                List<Integer> list = callees.get(top[0]);
+                if (top[1] < list.size()) {
+                    int callee = list.get(top[1]++);
+                    if (!visited[callee]) {
+                        visited[callee] = true;
+                        stack.push(new int[]{callee, 0});
+                    }
+                } else {
+                    order.add(top[0]);
+                    stack.pop();
+                }
+            }
+        }
+        return order;
+    }
+
+    private boolean canInline(int caller, int callee) {
+        return callee != 0 && callee != caller && !recursive[callee]
+                && functions[callee].getBodyCount() <= threshold
+                && StackDepth.of(functions, functions[callee]) != null;
+    }
+
+    /**
+     * 一处要展开的调用
+     * start 是实参开始的地方（有 stackalloc 时是 stackalloc），argStarts 是每个实参第一条指令的下标
+     */
+    private static class Site {
+        final int start;
+        final int[] argStarts;
+        final int call;
+
+        Site(int start, int[] argStarts, int call) {
+            this.start = start;
+            this.argStarts = argStarts;
+            this.call = call;
+        }
+    }
+
+    /**
+     * 找出 call 指令前的实参和留返回值位置的 stackalloc
+     * 实参里有跳转、或者有别的地方跳进来时不展开
+     */
+    private Site findSite(CodeBuffer code, boolean[] isTarget, int call) {
+        Function callee = functions[(int) code.operand(call)];
+        int[] argStarts = StackDepth.argStarts(functions, code, call);
+        if (argStarts == null) {
+            return null;
+        }
+        int start = argStarts.length > 0 ? argStarts[0] : call;
+        if (start > 0 && code.opcode(start - 1) == Opcode.STACKALLOC && code.operand(start - 1) == callee.getRetSlots()) {
+            start--;
+        } else if (callee.getRetSlots() != 0) {
+            return null;
+        }
+        for (int j = start; j < call; j++) {
+            Opcode op = code.opcode(j);
+            if (op.isBranch() || op == Opcode.RET || (j > start && isTarget[j])) {
+                return null;
+            }
+        }
+        if (isTarget[call]) {
+            return null;
+        }
+        return new Site(start, argStarts, call);
+    }
+
+    /**
+     * 展开 caller 里所有能内联的调用
+     *
+     * @return 有没有展开
+     */
+    private boolean inlineCalls(int caller) {
+        Function function = functions[caller];
+        CodeBuffer code = function.getCode();
+        int size = function.getBodyCount();
+        boolean[] isTarget = StackDepth.targets(code, size);
+
+        // 互相重叠的只展开靠前（里层）的那个，外层的下一轮再看
+        Site[] siteAt = new Site[size];
+        int lastEnd = -1;
+        for (int i = 0; i < size; i++) {
+            if (code.opcode(i) != Opcode.CALL || !canInline(caller, (int) code.operand(i))) {
+                continue;
+            }
+            Site site = findSite(code, isTarget, i);
+            if (site == null || site.start <= lastEnd) {
+                continue;
+            }
+            siteAt[site.start] = site;
+            lastEnd = i;
+        }
+        if (lastEnd < 0) {
+            return false;
+        }
+
+        CodeBuffer out = new CodeBuffer(size * 2);
+        int[] newIndex = new int[size + 1];
+        // 调用者自己的跳转：新的下标和原来的目标
+        int[] branchAt = new int[size];
+        int[] branchTarget = new int[size];
+        int branchCount = 0;
+        int nextLocal = function.getLocSlots();
+        for (int i = 0; i < size; i++) {
+            newIndex[i] = out.size();
+            Site site = siteAt[i];
+            if (site != null) {
+                nextLocal = expand(out, code, site, nextLocal);
+                inlinedCount++;
+                i = site.call;
+                continue;
+            }
+            Opcode op = code.opcode(i);
+            if (op.isBranch()) {
+                branchAt[branchCount] = out.size();
+                branchTarget[branchCount] = (int) (i + 1 + code.operand(i));
+                branchCount++;
+            }
+            out.emit(op, code.operand(i));
+        }
+        newIndex[size] = out.size();
+        for (int k = 0; k < branchCount; k++) {
+            out.setOperand(branchAt[k], newIndex[branchTarget[k]] - branchAt[k] - 1);
+        }
+
+        CodeBuffer optimized = new Peephole().optimize(out);
+        functions[caller] = new Function(function.getNameLoc(), function.getRetSlots(), function.getParamSlots(),
+                nextLocal, optimized.size(), optimized);
+        return true;
+    }
+
+    /**
+     * 在 out 末尾展开一处调用，被调函数的参数、局部变量和返回值依次放在从 nextLocal 开始的新局部变量里
+     * 只读的参数对应的实参是常量或者调用者的变量时不用存，直接代替函数体里参数的读取
+     *
+     * @return 调用者新的局部变量个数
+     */
+    private int expand(CodeBuffer out, CodeBuffer code, Site site, int nextLocal) {
+        Function callee = functions[(int) code.operand(site.call)];
+        CodeBuffer body = callee.getCode();
+        int size = callee.getBodyCount();
+        int[] depth = StackDepth.of(functions, callee);
+        boolean[] isTarget = StackDepth.targets(body, size);
+        boolean hasRet = callee.getRetSlots() != 0;
+        int params = callee.getParamSlots();
+        int paramBase = nextLocal;
+        int localBase = paramBase + params;
+        int retSlot = localBase + callee.getLocSlots();
+
+        // 实参：能直接代替的记下它的代码，其余的存进参数变量
+        int[] argFrom = new int[params];
+        int[] argTo = new int[params];
+        for (int p = 0; p < params; p++) {
+            int from = site.argStarts[p];
+            int to = p + 1 < params ? site.argStarts[p + 1] : site.call;
+            if (isSimple(code, from, to) && isReadOnly(body, size, isTarget, hasRet ? p + 1 : p)) {
+                argFrom[p] = from;
+                argTo[p] = to;
+                continue;
+            }
+            argFrom[p] = -1;
+            out.emit(Opcode.LOCA, paramBase + p);
+            for (int i = from; i < to; i++) {
+                out.emit(code.opcode(i), code.operand(i));
+            }
+            out.emit(Opcode.STORE_64);
+        }
+
+        // 原来每次调用时局部变量都是 0，先写后读的不用清零
+        for (int j = 0; j < callee.getLocSlots(); j++) {
+            if (!StackDepth.isWrittenFirst(body, size, depth, isTarget, j)) {
+                out.emit(Opcode.LOCA, localBase + j);
+                out.emit(Opcode.PUSH, 0);
+                out.emit(Opcode.STORE_64);
+            }
+        }
+
+        // 只在最后 return 表达式; 时返回值直接留在栈上，去掉 arga 0 和 store
+        int resultAt = hasRet ? directResult(body, size, depth, isTarget) : -1;
+        if (hasRet && resultAt < 0 && !alwaysStoresResult(body, size)) {
+            out.emit(Opcode.LOCA, retSlot);
+            out.emit(Opcode.PUSH, 0);
+            out.emit(Opcode.STORE_64);
+        }
+
+        // 最后一条 ret 直接落到展开代码的末尾
+        int end = body.opcode(size - 1) == Opcode.RET ? size - 1 : size;
+        // 函数体每条指令展开后的位置（相对 base）
+        int base = out.size();
+        int[] pos = new int[end + 1];
+        int count = 0;
+        for (int j = 0; j < end; j++) {
+            pos[j] = count;
+            if (resultAt >= 0 && (j == resultAt || j == end - 1)) {
+                continue;
+            }
+            int arg = argOf(body, j, hasRet);
+            if (arg >= 0 && argFrom[arg] >= 0) {
+                count += argTo[arg] - argFrom[arg];
+                j++;
+                pos[j] = count;
+                continue;
+            }
+            count++;
+        }
+        pos[end] = count;
+
+        for (int j = 0; j < end; j++) {
+            Opcode op = body.opcode(j);
+            long operand = body.operand(j);
+            if (resultAt >= 0 && (j == resultAt || j == end - 1)) {
+                continue;
+            }
+            int arg = argOf(body, j, hasRet);
+            if (arg >= 0 && argFrom[arg] >= 0) {
+                for (int i = argFrom[arg]; i < argTo[arg]; i++) {
+                    out.emit(code.opcode(i), code.operand(i));
+                }
+                j++;
+            } else if (op == Opcode.ARGA) {
+                out.emit(Opcode.LOCA, arg >= 0 ? paramBase + arg : retSlot);
+            } else if (op == Opcode.LOCA) {
+                out.emit(Opcode.LOCA, localBase + operand);
+            } else if (op == Opcode.RET) {
+                out.emit(Opcode.BR, pos[end] - pos[j] - 1);
+            } else if (op.isBranch()) {
+                out.emit(op, pos[(int) (j + 1 + operand)] - pos[j] - 1);
+            } else {
+                out.emit(op, operand);
+            }
+        }
+        if (hasRet && resultAt < 0) {
+            out.emit(Opcode.LOCA, retSlot);
+            out.emit(Opcode.LOAD_64);
+        }
+        return retSlot + callee.getRetSlots();
+    }
+
+    /**
+     * 函数体第 j 条指令是 arga 时它对应第几个参数，返回值的 arga 0 和其他指令返回 -1
+     */
+    private static int argOf(CodeBuffer body, int j, boolean hasRet) {
+        if (body.opcode(j) != Opcode.ARGA) {
+            return -1;
+        }
+        return (int) body.operand(j) - (hasRet ? 1 : 0);
+    }
+
+    /**
+     * 实参是 push 常量，或者读调用者的局部变量 / 参数（函数体改不到它们）
+     */
+    private static boolean isSimple(CodeBuffer code, int from, int to) {
+        if (to - from == 1) {
+            return code.opcode(from) == Opcode.PUSH;
+        }
+        return to - from == 2 && (code.opcode(from) == Opcode.LOCA || code.opcode(from) == Opcode.ARGA)
+                && code.opcode(from + 1) == Opcode.LOAD_64;
+    }
+
+    /**
+     * 函数体里 arga slot 后面总是紧跟着 load，也就是这个参数只读不写
+     */
+    private static boolean isReadOnly(CodeBuffer body, int size, boolean[] isTarget, int slot) {
+        for (int j = 0; j < size; j++) {
+            if (body.opcode(j) == Opcode.ARGA && body.operand(j) == slot
+                    && (j + 1 >= size || body.opcode(j + 1) != Opcode.LOAD_64 || isTarget[j + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 函数只在最后有一条 ret，前面是 arga 0; 表达式; store，中间没有别的地方跳进来时返回 arga 0 的下标，否则返回 -1
+     */
+    private static int directResult(CodeBuffer body, int size, int[] depth, boolean[] isTarget) {
+        for (int j = 0; j < size - 1; j++) {
+            if (body.opcode(j) == Opcode.RET) {
+                return -1;
+            }
+        }
+        int store = size - 2;
+        if (store < 0 || body.opcode(size - 1) != Opcode.RET || body.opcode(store) != Opcode.STORE_64
+                || isTarget[size - 1] || isTarget[store]) {
+            return -1;
+        }
+        // 往前找 store 的地址是谁放的
+        int j = store - 1;
+        while (j >= 0 && depth[j] != 0) {
+            if (isTarget[j]) {
+                return -1;
+            }
+            j--;
+        }
+        if (j < 0 || body.opcode(j) != Opcode.ARGA || body.operand(j) != 0) {
+            return -1;
+        }
+        for (int k = 0; k < size; k++) {
+            if (k != j && body.opcode(k) == Opcode.ARGA && body.operand(k) == 0) {
+                return -1;
+            }
+        }
+        return j;
+    }
+
+    /**
+     * 每条 ret 前面都是 store（return 表达式;），返回值一定写过
+     */
+    private static boolean alwaysStoresResult(CodeBuffer body, int size) {
+        for (int j = 0; j < size; j++) {
+            if (body.opcode(j) == Opcode.RET && (j == 0 || body.opcode(j - 1) != Opcode.STORE_64)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
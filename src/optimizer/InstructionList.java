@@ -0,0 +1,143 @@
+package optimizer;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+
+/**
+ * 优化时使用的指令序列
+ * 跳转指令的操作数换成了目标指令的下标（绝对位置），删除指令时不需要逐条修改偏移；
+ * 删除只是做标记，toCodeBuffer() 时才把剩下的指令排紧，并重新算出跳转偏移
+ */
+public class InstructionList {
+    // 被删除的指令为 null
+    private final Opcode[] ops;
+    private final long[] operands;
+    private final int size;
+
+    // 每条指令是多少条跳转指令的目标，下标 size 表示函数末尾
+    private final int[] targetCount;
+
+    public InstructionList(CodeBuffer code) {
+        size = code.size();
+        ops = new Opcode[size];
+        operands = new long[size];
+        targetCount = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            ops[i] = code.opcode(i);
+            operands[i] = code.operand(i);
+            if (ops[i].isBranch()) {
+                operands[i] += i + 1;
+                targetCount[(int) operands[i]]++;
+            }
+        }
+    }
+
+    /**
+     * 包括已删除的指令在内的条数，下标的范围是 [0, size())
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 第 i 条指令，已删除时为 null
+     */
+    public Opcode opcode(int i) {
+        return ops[i];
+    }
+
+    /**
+     * 第 i 条指令的操作数，跳转指令是目标的下标
+     */
+    public long operand(int i) {
+        return operands[i];
+    }
+
+    public int target(int i) {
+        return (int) operands[i];
+    }
+
+    public boolean isRemoved(int i) {
+        return ops[i] == null;
+    }
+
+    /**
+     * 有跳转指令跳到第 i 条指令
+     */
+    public boolean isTarget(int i) {
+        return targetCount[i] > 0;
+    }
+
+    /**
+     * i 之后第一条没有删除的指令，没有时返回 size()
+     */
+    public int next(int i) {
+        i++;
+        while (i < size && ops[i] == null) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 把第 i 条指令换成另一条，跳转指令的 operand 是目标的下标
+     */
+    public void set(int i, Opcode op, long operand) {
+        if (ops[i].isBranch()) {
+            targetCount[target(i)]--;
+        }
+        ops[i] = op;
+        operands[i] = operand;
+        if (op.isBranch()) {
+            targetCount[target(i)]++;
+        }
+    }
+
+    /**
+     * 删除第 i 条指令，跳到它的跳转指令改为跳到它后面的那条
+     */
+    public void remove(int i) {
+        if (ops[i].isBranch()) {
+            targetCount[target(i)]--;
+        }
+        ops[i] = null;
+        if (targetCount[i] > 0) {
+            int next = next(i);
+            for (int k = 0; k < size; k++) {
+                if (ops[k] != null && ops[k].isBranch() && target(k) == i) {
+                    operands[k] = next;
+                }
+            }
+            targetCount[next] += targetCount[i];
+            targetCount[i] = 0;
+        }
+    }
+
+    /**
+     * 去掉已删除的指令，重新算出跳转偏移
+     */
+    public CodeBuffer toCodeBuffer() {
+        // 每个旧下标对应的新下标，已删除的指令对应它后面那条指令的新下标
+        int[] newIndex = new int[size + 1];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            newIndex[i] = count;
+            if (ops[i] != null) {
+                count++;
+            }
+        }
+        newIndex[size] = count;
+        CodeBuffer code = new CodeBuffer(count);
+        for (int i = 0; i < size; i++) {
+            if (ops[i] == null) {
+                continue;
+            }
+            if (ops[i].isBranch()) {
+                code.emit(ops[i], newIndex[target(i)] - newIndex[i] - 1);
+            } else {
+                code.emit(ops[i], operands[i]);
+            }
+        }
+        return code;
+    }
+}
@@ -0,0 +1,115 @@
+package optimizer;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+import ir.BasicBlock;
+import ir.ControlFlowGraph;
+import o0.Function;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 局部变量（loca）的活跃分析
+ * 每条 loca 按它后面的指令分成读（loca; load）、写（loca; 表达式; store，表达式里不读它自己）、
+ * 先读后写（loca; dup; load ... store，或者表达式里读了它自己）；认不出来的记下来，这种变量不参与槽位复用。
+ * 在控制流图上从后往前求每个块出口处活跃的变量
+ */
+public class Liveness {
+    static final int NONE = 0;
+    static final int USE = 1;
+    static final int DEF = 2;
+    static final int USE_DEF = 3;
+    static final int UNKNOWN = 4;
+
+    private final Function[] functions;
+
+    // 按块的编号索引
+    private final BitSet[] liveIn;
+    private final BitSet[] liveOut;
+
+    // 有认不出来的访问的变量
+    private final BitSet unknown = new BitSet();
+
+    public Liveness(Function[] functions, ControlFlowGraph cfg) {
+        this.functions = functions;
+        this.liveIn = new BitSet[cfg.idBound()];
+        this.liveOut = new BitSet[cfg.idBound()];
+        List<BasicBlock> blocks = cfg.getBlocks();
+        for (BasicBlock block : blocks) {
+            liveIn[block.getId()] = new BitSet();
+            liveOut[block.getId()] = new BitSet();
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = blocks.size() - 1; k >= 0; k--) {
+                BasicBlock block = blocks.get(k);
+                BitSet out = new BitSet();
+                for (BasicBlock successor : block.successors()) {
+                    out.or(liveIn[successor.getId()]);
+                }
+                BitSet in = (BitSet) out.clone();
+                CodeBuffer body = block.getBody();
+                for (int i = body.size() - 1; i >= 0; i--) {
+                    int access = access(body, i);
+                    if (access == DEF) {
+                        in.clear((int) body.operand(i));
+                    } else if (access != NONE) {
+                        in.set((int) body.operand(i));
+                    }
+                }
+                if (!out.equals(liveOut[block.getId()]) || !in.equals(liveIn[block.getId()])) {
+                    liveOut[block.getId()] = out;
+                    liveIn[block.getId()] = in;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    public BitSet liveOut(BasicBlock block) {
+        return liveOut[block.getId()];
+    }
+
+    /**
+     * 有认不出来的访问、不能和别的变量共用槽位的变量
+     */
+    public BitSet unknown() {
+        return unknown;
+    }
+
+    /**
+     * 块内第 i 条指令对局部变量的访问
+     */
+    int access(CodeBuffer body, int i) {
+        if (body.opcode(i) != Opcode.LOCA) {
+            return NONE;
+        }
+        long slot = body.operand(i);
+        if (i + 1 < body.size() && body.opcode(i + 1) == Opcode.LOAD_64) {
+            return USE;
+        }
+        if (i + 1 < body.size() && body.opcode(i + 1) == Opcode.DUP) {
+            return USE_DEF;
+        }
+        // 找到用这个地址的 store：地址之上正好多一个值的时候
+        boolean reads = false;
+        int depth = 1;
+        for (int j = i + 1; j < body.size(); j++) {
+            Opcode op = body.opcode(j);
+            if (op == Opcode.STORE_64 && depth == 2) {
+                return reads ? USE_DEF : DEF;
+            }
+            if (op == Opcode.LOCA && body.operand(j) == slot) {
+                reads = true;
+            }
+            depth += StackDepth.effect(functions, op, body.operand(j));
+            if (depth < 1) {
+                break;
+            }
+        }
+        unknown.set((int) slot);
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,123 @@
+package optimizer;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+import ir.BasicBlock;
+import ir.ControlFlowGraph;
+import o0.Function;
+import o0.ModuleWriter;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 局部变量槽位复用
+ * 语法分析给每个 let / const 分配一个新的 loca 槽位，内联和循环不变量外提也会加新的局部变量。
+ * 根据活跃分析，写一个变量时它和这时活跃的其他变量冲突；不冲突的变量可以放在同一个槽位里，
+ * 按槽位顺序贪心着色，用不到的槽位直接去掉，函数的 loc_slots 变小
+ */
+public class LocalSlotColoring {
+    private int savedSlots;
+
+    public ModuleWriter run(ModuleWriter module) {
+        int functionCount = module.getFunctionCount();
+        Function[] functions = Arrays.copyOf(module.getFunctions(), functionCount);
+        savedSlots = 0;
+        for (int k = 0; k < functionCount; k++) {
+            Function function = functions[k];
+            if (function.getLocSlots() == 0) {
+                continue;
+            }
+            int[] color = color(functions, function);
+            int slots = 0;
+            for (int c : color) {
+                slots = Math.max(slots, c + 1);
+            }
+            if (slots == function.getLocSlots()) {
+                continue;
+            }
+            CodeBuffer code = function.getCode();
+            CodeBuffer recolored = new CodeBuffer(function.getBodyCount());
+            for (int i = 0; i < function.getBodyCount(); i++) {
+                Opcode op = code.opcode(i);
+                recolored.emit(op, op == Opcode.LOCA ? color[(int) code.operand(i)] : code.operand(i));
+            }
+            functions[k] = new Function(function.getNameLoc(), function.getRetSlots(), function.getParamSlots(),
+                    slots, recolored.size(), recolored);
+            savedSlots += function.getLocSlots() - slots;
+        }
+        return new ModuleWriter(module.getGlobals(), module.getGlobalCount(), functions, functionCount, module.getFunctionNameBase());
+    }
+
+    /**
+     * 上一次 run 一共减少的局部变量槽位数
+     */
+    public int getSavedSlots() {
+        return savedSlots;
+    }
+
+    /**
+     * 每个槽位的新槽位，没有用到的槽位为 -1
+     */
+    private static int[] color(Function[] functions, Function function) {
+        int n = function.getLocSlots();
+        ControlFlowGraph cfg = ControlFlowGraph.build(function.getCode());
+        Liveness liveness = new Liveness(functions, cfg);
+
+        // 冲突图，用到的槽位
+        BitSet[] interfere = new BitSet[n];
+        for (int j = 0; j < n; j++) {
+            interfere[j] = new BitSet(n);
+        }
+        BitSet used = new BitSet(n);
+        for (BasicBlock block : cfg.getBlocks()) {
+            BitSet live = (BitSet) liveness.liveOut(block).clone();
+            CodeBuffer body = block.getBody();
+            for (int i = body.size() - 1; i >= 0; i--) {
+                int access = liveness.access(body, i);
+                if (access == Liveness.NONE) {
+                    continue;
+                }
+                int slot = (int) body.operand(i);
+                used.set(slot);
+                if (access != Liveness.USE) {
+                    // 写的时候活跃的变量都不能和它共用槽位
+                    for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+                        if (v != slot) {
+                            interfere[slot].set(v);
+                            interfere[v].set(slot);
+                        }
+                    }
+                }
+                if (access == Liveness.DEF) {
+                    live.clear(slot);
+                } else {
+                    live.set(slot);
+                }
+            }
+        }
+
+        int[] color = new int[n];
+        Arrays.fill(color, -1);
+        BitSet unknown = liveness.unknown();
+        int next = 0;
+        // 认不出来访问的变量各占一个槽位
+        for (int j = unknown.nextSetBit(0); j >= 0; j = unknown.nextSetBit(j + 1)) {
+            color[j] = next++;
+        }
+        int reserved = next;
+        for (int j = 0; j < n; j++) {
+            if (!used.get(j) || color[j] >= 0) {
+                continue;
+            }
+            BitSet taken = new BitSet();
+            for (int v = interfere[j].nextSetBit(0); v >= 0; v = interfere[j].nextSetBit(v + 1)) {
+                if (color[v] >= 0) {
+                    taken.set(color[v]);
+                }
+            }
+            color[j] = taken.nextClearBit(reserved);
+        }
+        return color;
+    }
+}
@@ -0,0 +1,208 @@
+package optimizer;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+import ir.BasicBlock;
+import ir.ControlFlowGraph;
+import ir.Loop;
+import o0.Function;
+import o0.ModuleWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 循环不变量外提
+ * 在控制流图上找出循环（while 的条件块是 header，循环体末尾 br 回来的边是回边），把循环里每次算出来都一样的表达式
+ * 挪到循环前面新加的前置块里算一次，存进新的局部变量，循环里改成读这个变量。
+ * 只挪每次迭代都会执行的块（支配所有回边起点的块）里的表达式，只在 if、continue、break 的某一边才执行的不挪，
+ * 不然循环前面多算的一次可能比省下的还多。
+ * 只挪没有副作用、也不会出错的表达式：常量、循环里不写的变量的读取、加减乘、比较、取反（除法可能除以 0，不挪）；
+ * 循环里有 call 时被调函数可能改全局变量，这时全局变量都不算不变的。里层循环先处理，挪出来的表达式还可能接着挪到外层循环前面
+ */
+public class LoopInvariantCodeMotion {
+    // 挪一个表达式要在循环里留下 loca; load 两条指令，比这短的不挪
+    private static final int MIN_LENGTH = 3;
+
+    private int hoistedCount;
+
+    public ModuleWriter run(ModuleWriter module) {
+        int functionCount = module.getFunctionCount();
+        Function[] functions = Arrays.copyOf(module.getFunctions(), functionCount);
+        hoistedCount = 0;
+        for (int k = 0; k < functionCount; k++) {
+            Function function = functions[k];
+            ControlFlowGraph cfg = ControlFlowGraph.build(function.getCode());
+            int locals = function.getLocSlots();
+            int hoisted = 0;
+            Set<Integer> done = new HashSet<>();
+            Loop loop;
+            while ((loop = nextLoop(cfg, done)) != null) {
+                done.add(loop.getHeader().getId());
+                int[] next = {locals};
+                hoisted += hoist(cfg, loop, next);
+                locals = next[0];
+            }
+            if (hoisted != 0) {
+                CodeBuffer optimized = new Peephole().optimize(cfg.linearize());
+                functions[k] = new Function(function.getNameLoc(), function.getRetSlots(), function.getParamSlots(),
+                        locals, optimized.size(), optimized);
+                hoistedCount += hoisted;
+            }
+        }
+        return new ModuleWriter(module.getGlobals(), module.getGlobalCount(), functions, functionCount, module.getFunctionNameBase());
+    }
+
+    /**
+     * 上一次 run 挪出循环的表达式个数
+     */
+    public int getHoistedCount() {
+        return hoistedCount;
+    }
+
+    /**
+     * 还没处理过的最里层的循环；每处理一个循环控制流图都会变，所以每次都重新找
+     */
+    private static Loop nextLoop(ControlFlowGraph cfg, Set<Integer> done) {
+        for (Loop loop : Loop.find(cfg)) {
+            if (!done.contains(loop.getHeader().getId())) {
+                return loop;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把 loop 里的不变表达式挪到新的前置块里，局部变量从 next[0] 开始分配
+     *
+     * @return 挪出来的表达式个数
+     */
+    private static int hoist(ControlFlowGraph cfg, Loop loop, int[] next) {
+        List<BasicBlock> blocks = loop.getBlocks();
+        Set<Long> written = new HashSet<>();
+        boolean hasCall = false;
+        for (BasicBlock block : blocks) {
+            CodeBuffer body = block.getBody();
+            for (int i = 0; i < body.size(); i++) {
+                Opcode op = body.opcode(i);
+                if (isAddress(op) && (i + 1 >= body.size() || body.opcode(i + 1) != Opcode.LOAD_64)) {
+                    written.add(key(op, body.operand(i)));
+                }
+                hasCall |= op == Opcode.CALL;
+            }
+        }
+
+        // 回边的起点，每次迭代都执行的块要支配所有回边的起点
+        BitSet[] dom = cfg.dominators();
+        List<BasicBlock> latches = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            if (block.successors().contains(loop.getHeader())) {
+                latches.add(block);
+            }
+        }
+
+        BasicBlock preheader = null;
+        int count = 0;
+        for (BasicBlock block : blocks) {
+            if (!runsEveryIteration(dom, latches, block)) {
+                continue;
+            }
+            CodeBuffer body = block.getBody();
+            CodeBuffer rewritten = new CodeBuffer(body.size());
+            boolean changed = false;
+            int i = 0;
+            while (i < body.size()) {
+                int end = invariantEnd(body, i, written, hasCall);
+                if (end - i < MIN_LENGTH) {
+                    rewritten.emit(body.opcode(i), body.operand(i));
+                    i++;
+                    continue;
+                }
+                if (preheader == null) {
+                    preheader = loop.insertPreheader(cfg);
+                }
+                int slot = next[0]++;
+                CodeBuffer pre = preheader.getBody();
+                pre.emit(Opcode.LOCA, slot);
+                for (int j = i; j < end; j++) {
+                    pre.emit(body.opcode(j), body.operand(j));
+                }
+                pre.emit(Opcode.STORE_64);
+                rewritten.emit(Opcode.LOCA, slot);
+                rewritten.emit(Opcode.LOAD_64);
+                changed = true;
+                count++;
+                i = end;
+            }
+            if (changed) {
+                body.truncate(0);
+                for (int j = 0; j < rewritten.size(); j++) {
+                    body.emit(rewritten.opcode(j), rewritten.operand(j));
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean runsEveryIteration(BitSet[] dom, List<BasicBlock> latches, BasicBlock block) {
+        for (BasicBlock latch : latches) {
+            if (!dom[latch.getId()].get(block.getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从 start 开始最长的一个不变表达式（执行完栈上正好多一个值）的结尾，没有时返回 start
+     */
+    private static int invariantEnd(CodeBuffer body, int start, Set<Long> written, boolean hasCall) {
+        int depth = 0;
+        int end = start;
+        int i = start;
+        while (i < body.size()) {
+            Opcode op = body.opcode(i);
+            if (isAddress(op)) {
+                // 只能是读变量
+                if (i + 1 >= body.size() || body.opcode(i + 1) != Opcode.LOAD_64
+                        || written.contains(key(op, body.operand(i))) || (op == Opcode.GLOBA && hasCall)) {
+                    break;
+                }
+                depth++;
+                i += 2;
+            } else if (op == Opcode.PUSH) {
+                depth++;
+                i++;
+            } else if (op == Opcode.ADD_I || op == Opcode.SUB_I || op == Opcode.MUL_I || op == Opcode.CMP_I) {
+                if (depth < 2) {
+                    break;
+                }
+                depth--;
+                i++;
+            } else if (op == Opcode.NEG_I || op == Opcode.NOT || op == Opcode.SET_LT || op == Opcode.SET_GT) {
+                if (depth < 1) {
+                    break;
+                }
+                i++;
+            } else {
+                break;
+            }
+            if (depth == 1) {
+                end = i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isAddress(Opcode op) {
+        return op == Opcode.LOCA || op == Opcode.ARGA || op == Opcode.GLOBA;
+    }
+
+    private static long key(Opcode op, long operand) {
+        return ((long) op.ordinal() << 32) | operand;
+    }
+}
@@ -0,0 +1,160 @@
+package optimizer;
+
+import analyser.Analyser;
+import analyser.CodeBuffer;
+import analyser.SymbolEntry;
+import instruction.Opcode;
+import util.IntMap;
+
+import java.util.List;
+
+/**
+ * 窥孔优化
+ * 用一张规则表在每个函数的指令序列上滑动，反复改写直到没有规则能用为止，最后重新算出跳转偏移
+ */
+public class Peephole {
+    /**
+     * 默认的规则表
+     */
+    public static final List<PeepholeRule> DEFAULT_RULES = List.of(
+            Peephole::removeBranchToNext,
+            Peephole::invertBranchOverBranch,
+            Peephole::threadBranch,
+            Peephole::removeUnreachable,
+            Peephole::removeEmptyStackalloc,
+            Peephole::dupSameAddress
+    );
+
+    private final List<PeepholeRule> rules;
+
+    public Peephole() {
+        this(DEFAULT_RULES);
+    }
+
+    public Peephole(List<PeepholeRule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * 优化语法分析生成的所有函数（包括 _start）
+     */
+    public void run(Analyser an) {
+        IntMap<SymbolEntry> symbolTable = an.getSymbolTable();
+        for (int k = 0; k < symbolTable.entryCount(); k++) {
+            SymbolEntry symbolEntry = symbolTable.valueAt(k);
+            if (symbolEntry != null && symbolEntry.getCode() != null) {
+                symbolEntry.setCode(optimize(symbolEntry.getCode()));
+            }
+        }
+    }
+
+    public CodeBuffer optimize(CodeBuffer code) {
+        InstructionList list = new InstructionList(code);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = list.next(-1); i < list.size(); i = list.next(i)) {
+                for (PeepholeRule rule : rules) {
+                    if (rule.apply(list, i)) {
+                        changed = true;
+                        if (list.isRemoved(i)) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return list.toCodeBuffer();
+    }
+
+    /**
+     * br 到下一条指令：删掉，if 语句最后的 br(0) 就是这样的
+     */
+    static boolean removeBranchToNext(InstructionList list, int i) {
+        if (list.opcode(i) != Opcode.BR || list.target(i) != list.next(i)) {
+            return false;
+        }
+        list.remove(i);
+        return true;
+    }
+
+    /**
+     * br.true(1); br(L) 或 br.false(1); br(L)：条件取反，直接跳到 L
+     */
+    static boolean invertBranchOverBranch(InstructionList list, int i) {
+        Opcode op = list.opcode(i);
+        if (op != Opcode.BR_TRUE && op != Opcode.BR_FALSE) {
+            return false;
+        }
+        int j = list.next(i);
+        if (j == list.size() || list.opcode(j) != Opcode.BR || list.isTarget(j) || list.target(i) != list.next(j)) {
+            return false;
+        }
+        list.set(i, op == Opcode.BR_TRUE ? Opcode.BR_FALSE : Opcode.BR_TRUE, list.target(j));
+        list.remove(j);
+        return true;
+    }
+
+    /**
+     * 跳到 br(L) 的跳转指令直接跳到 L
+     */
+    static boolean threadBranch(InstructionList list, int i) {
+        if (!list.opcode(i).isBranch()) {
+            return false;
+        }
+        int target = list.target(i);
+        if (target == list.size() || list.opcode(target) != Opcode.BR) {
+            return false;
+        }
+        int next = list.target(target);
+        // 死循环 br(-1) 不用处理
+        if (next == target) {
+            return false;
+        }
+        list.set(i, list.opcode(i), next);
+        return true;
+    }
+
+    /**
+     * br 或 ret 后面、又不是跳转目标的指令永远执行不到，比如 break 后面的 br
+     */
+    static boolean removeUnreachable(InstructionList list, int i) {
+        Opcode op = list.opcode(i);
+        if (op != Opcode.BR && op != Opcode.RET) {
+            return false;
+        }
+        int j = list.next(i);
+        if (j == list.size() || list.isTarget(j)) {
+            return false;
+        }
+        list.remove(j);
+        return true;
+    }
+
+    /**
+     * 调用 void 函数前的 stackalloc(0) 什么也不做
+     */
+    static boolean removeEmptyStackalloc(InstructionList list, int i) {
+        if (list.opcode(i) != Opcode.STACKALLOC || list.operand(i) != 0) {
+            return false;
+        }
+        list.remove(i);
+        return true;
+    }
+
+    /**
+     * 连续两次取同一个变量的地址（如 i = i + 1）：第二次换成 dup
+     */
+    static boolean dupSameAddress(InstructionList list, int i) {
+        Opcode op = list.opcode(i);
+        if (op != Opcode.LOCA && op != Opcode.ARGA && op != Opcode.GLOBA) {
+            return false;
+        }
+        int j = list.next(i);
+        if (j == list.size() || list.opcode(j) != op || list.operand(j) != list.operand(i) || list.isTarget(j)) {
+            return false;
+        }
+        list.set(j, Opcode.DUP, 0);
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package optimizer;
+
+/**
+ * 窥孔优化的一条规则
+ * 看以第 i 条指令开头的一小段指令（用 InstructionList.next 往后取），能改写就直接在 list 上改
+ */
+public interface PeepholeRule {
+    /**
+     * @param i 一条没有删除的指令
+     * @return 改写了指令时返回 true
+     */
+    boolean apply(InstructionList list, int i);
+}
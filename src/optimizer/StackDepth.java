@@ -0,0 +1,168 @@
+package optimizer;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+import o0.Function;
+
+import java.util.Arrays;
+
+/**
+ * o0 指令序列的栈深度分析，内联和尾递归消除用来找实参、检查函数体执行到 ret 时栈上没有多余的值
+ */
+final class StackDepth {
+    // 标准库函数（getint ... putln）的参数个数，下标是 callname 的操作数
+    private static final int[] LIBRARY_PARAMS = {0, 0, 0, 1, 1, 1, 1, 0};
+
+    private StackDepth() {
+    }
+
+    /**
+     * 每条指令执行前的栈深度，执行到 ret 时栈上有多余的值（比如没有丢掉的表达式语句的值）、
+     * 或者有执行不到的指令时返回 null
+     */
+    static int[] of(Function[] functions, Function function) {
+        CodeBuffer code = function.getCode();
+        int size = function.getBodyCount();
+        // 每条指令执行前的栈深度，-1 表示还不知道
+        int[] depth = new int[size + 1];
+        Arrays.fill(depth, -1);
+        depth[0] = 0;
+        for (int i = 0; i < size; i++) {
+            if (depth[i] < 0) {
+                // 执行不到的代码
+                return null;
+            }
+            Opcode op = code.opcode(i);
+            if (op == Opcode.RET) {
+                if (depth[i] != 0) {
+                    return null;
+                }
+                continue;
+            }
+            int after = depth[i] + effect(functions, op, code.operand(i));
+            if (after < 0) {
+                return null;
+            }
+            if (op.isBranch() && !merge(depth, (int) (i + 1 + code.operand(i)), after)) {
+                return null;
+            }
+            if (op != Opcode.BR && !merge(depth, i + 1, after)) {
+                return null;
+            }
+        }
+        return depth;
+    }
+
+    private static boolean merge(int[] depth, int i, int d) {
+        if (i < 0 || i >= depth.length) {
+            return false;
+        }
+        if (depth[i] < 0) {
+            depth[i] = d;
+        }
+        return depth[i] == d;
+    }
+
+    /**
+     * 一条指令执行后栈上多了几个值（ret 除外），call 的返回值位置已经由前面的 stackalloc 留出来了
+     */
+    static int effect(Function[] functions, Opcode op, long operand) {
+        switch (op) {
+            case PUSH:
+            case PUSH_STR:
+            case DUP:
+            case LOCA:
+            case ARGA:
+            case GLOBA:
+                return 1;
+            case POP:
+            case ADD_I:
+            case SUB_I:
+            case MUL_I:
+            case DIV_I:
+            case CMP_I:
+            case BR_TRUE:
+            case BR_FALSE:
+                return -1;
+            case POPN:
+                return (int) -operand;
+            case STORE_64:
+                return -2;
+            case STACKALLOC:
+                return (int) operand;
+            case CALL:
+                return -functions[(int) operand].getParamSlots();
+            case CALLNAME:
+                return -LIBRARY_PARAMS[(int) operand];
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 找出 call 指令前每个实参第一条指令的下标：从 call 往前数，栈深度第一次比 call 处多 1 的地方就是最后一个实参的开头，依次类推
+     * 找不到时返回 null
+     */
+    static int[] argStarts(Function[] functions, CodeBuffer code, int call) {
+        int params = functions[(int) code.operand(call)].getParamSlots();
+        int[] argStarts = new int[params];
+        int i = call;
+        for (int p = params - 1; p >= 0; p--) {
+            int depth = 0;
+            do {
+                i--;
+                if (i < 0) {
+                    return null;
+                }
+                depth += effect(functions, code.opcode(i), code.operand(i));
+            } while (depth < 1);
+            if (depth != 1) {
+                return null;
+            }
+            argStarts[p] = i;
+        }
+        return argStarts;
+    }
+
+    /**
+     * 每条指令是不是跳转目标，下标 size 表示跳到末尾
+     */
+    static boolean[] targets(CodeBuffer code, int size) {
+        boolean[] isTarget = new boolean[size + 1];
+        for (int i = 0; i < size; i++) {
+            if (code.opcode(i).isBranch()) {
+                isTarget[(int) (i + 1 + code.operand(i))] = true;
+            }
+        }
+        return isTarget;
+    }
+
+    /**
+     * 局部变量 slot 在函数开头没有跳转的那一段里先被赋值：第一次出现的 loca slot 后面不是 load / dup，
+     * 并且在把值存进去之前没有再出现
+     */
+    static boolean isWrittenFirst(CodeBuffer body, int size, int[] depth, boolean[] isTarget, int slot) {
+        int address = -1;
+        for (int j = 0; j < size; j++) {
+            Opcode op = body.opcode(j);
+            if ((j > 0 && isTarget[j]) || op.isBranch() || op == Opcode.RET) {
+                return false;
+            }
+            if (address < 0) {
+                if (op == Opcode.LOCA && body.operand(j) == slot) {
+                    if (body.opcode(j + 1) == Opcode.LOAD_64 || body.opcode(j + 1) == Opcode.DUP) {
+                        return false;
+                    }
+                    address = j;
+                }
+            } else if (op == Opcode.LOCA && body.operand(j) == slot) {
+                return false;
+            } else if (op == Opcode.STORE_64 && depth[j] == depth[address] + 2) {
+                return true;
+            } else if (depth[j] <= depth[address]) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,192 @@
+package optimizer;
+
+import analyser.CodeBuffer;
+import instruction.Opcode;
+import o0.Function;
+import o0.ModuleWriter;
+
+import java.util.Arrays;
+
+/**
+ * 尾递归消除
+ * 函数在 return 自己(...); （void 函数是最后一句 自己(...);）处调用自己时不再新开一层调用：
+ * 算出实参赋给参数，再跳回函数开头。递归多少层栈都不会增长，也省掉了 stackalloc / call / ret
+ * 执行的指令条数不一定变少：每处改写换成每个参数一条 arga 一条 store 再加一条 br，两个参数时和
+ * arga 0 / stackalloc / call / ret / store 一样多，参数更多、或者有局部变量要在跳回去前清零时还会多几条。
+ * 主要的好处是栈深度固定，深递归不会栈溢出；call / ret 比普通指令贵的虚拟机上也会更快
+ */
+public class TailRecursion {
+    private int rewrittenCount;
+
+    public ModuleWriter run(ModuleWriter module) {
+        int functionCount = module.getFunctionCount();
+        Function[] functions = Arrays.copyOf(module.getFunctions(), functionCount);
+        rewrittenCount = 0;
+        // _start 不会被调用
+        for (int k = 1; k < functionCount; k++) {
+            rewrittenCount += rewrite(functions, k);
+        }
+        return new ModuleWriter(module.getGlobals(), module.getGlobalCount(), functions, functionCount, module.getFunctionNameBase());
+    }
+
+    /**
+     * 上一次 run 改写的递归调用个数
+     */
+    public int getRewrittenCount() {
+        return rewrittenCount;
+    }
+
+    /**
+     * 改写第 k 个函数里所有尾位置上调用自己的地方
+     *
+     * @return 改写的个数
+     */
+    private int rewrite(Function[] functions, int k) {
+        Function function = functions[k];
+        CodeBuffer code = function.getCode();
+        int size = function.getBodyCount();
+        int[] depth = StackDepth.of(functions, function);
+        if (depth == null) {
+            return 0;
+        }
+        boolean[] isTarget = StackDepth.targets(code, size);
+        boolean hasRet = function.getRetSlots() != 0;
+
+        // 每处调用从 start 开始（有返回值时是 arga 0），到 call 后面的 store 为止
+        int[] startOf = new int[size];
+        int[][] argStartsOf = new int[size][];
+        Arrays.fill(startOf, -1);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (code.opcode(i) != Opcode.CALL || code.operand(i) != k) {
+                continue;
+            }
+            int[] argStarts = StackDepth.argStarts(functions, code, i);
+            int start = findStart(code, depth, isTarget, i, argStarts, hasRet);
+            if (start < 0) {
+                continue;
+            }
+            startOf[start] = i;
+            argStartsOf[start] = argStarts;
+            count++;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        int params = function.getParamSlots();
+        int argBase = hasRet ? 1 : 0;
+        CodeBuffer out = new CodeBuffer(size + count * params * 2);
+        int[] newIndex = new int[size + 1];
+        int[] branchAt = new int[size + count];
+        int[] branchTarget = new int[size + count];
+        int branchCount = 0;
+        for (int i = 0; i < size; i++) {
+            newIndex[i] = out.size();
+            if (startOf[i] >= 0) {
+                int call = startOf[i];
+                int[] argStarts = argStartsOf[i];
+                // 按原来的顺序把每个参数的地址和实参压栈，全部算完后再从栈顶往下依次 store，
+                // 后面的实参读到的还是旧的参数，不用临时变量
+                for (int p = 0; p < params; p++) {
+                    int to = p + 1 < params ? argStarts[p + 1] : call;
+                    out.emit(Opcode.ARGA, argBase + p);
+                    for (int j = argStarts[p]; j < to; j++) {
+                        out.emit(code.opcode(j), code.operand(j));
+                    }
+                }
+                for (int p = 0; p < params; p++) {
+                    out.emit(Opcode.STORE_64);
+                }
+                // 原来每次调用时局部变量都是 0
+                for (int j = 0; j < function.getLocSlots(); j++) {
+                    if (!StackDepth.isWrittenFirst(code, size, depth, isTarget, j)) {
+                        out.emit(Opcode.LOCA, j);
+                        out.emit(Opcode.PUSH, 0);
+                        out.emit(Opcode.STORE_64);
+                    }
+                }
+                branchAt[branchCount] = out.size();
+                branchTarget[branchCount] = 0;
+                branchCount++;
+                out.emit(Opcode.BR, 0);
+                // 后面的 ret 留着，别处可能还会跳过去，执行不到的由 Peephole 删掉
+                i = hasRet ? call + 1 : call;
+                continue;
+            }
+            Opcode op = code.opcode(i);
+            if (op.isBranch()) {
+                branchAt[branchCount] = out.size();
+                branchTarget[branchCount] = (int) (i + 1 + code.operand(i));
+                branchCount++;
+            }
+            out.emit(op, code.operand(i));
+        }
+        newIndex[size] = out.size();
+        for (int j = 0; j < branchCount; j++) {
+            out.setOperand(branchAt[j], newIndex[branchTarget[j]] - branchAt[j] - 1);
+        }
+
+        CodeBuffer optimized = new Peephole().optimize(out);
+        functions[k] = new Function(function.getNameLoc(), function.getRetSlots(), params,
+                function.getLocSlots(), optimized.size(), optimized);
+        return count;
+    }
+
+    /**
+     * 检查第 call 条指令是不是尾调用：有返回值时是 arga 0; stackalloc 1; 实参; call; store; 然后返回，
+     * 没有返回值时是 实参; call; 然后返回，中间没有跳转，也没有别的地方跳进来，开始时栈上没有别的值
+     *
+     * @return 开始的下标，不是时返回 -1
+     */
+    private static int findStart(CodeBuffer code, int[] depth, boolean[] isTarget, int call, int[] argStarts, boolean hasRet) {
+        if (argStarts == null) {
+            return -1;
+        }
+        int after = call + 1;
+        if (hasRet) {
+            if (code.opcode(after) != Opcode.STORE_64 || isTarget[after]) {
+                return -1;
+            }
+            after++;
+        }
+        if (!isReturn(code, after)) {
+            return -1;
+        }
+        int start = argStarts.length > 0 ? argStarts[0] : call;
+        if (hasRet) {
+            if (start < 2 || code.opcode(start - 1) != Opcode.STACKALLOC || code.operand(start - 1) != 1
+                    || code.opcode(start - 2) != Opcode.ARGA || code.operand(start - 2) != 0) {
+                return -1;
+            }
+            start -= 2;
+        } else if (start > 0 && code.opcode(start - 1) == Opcode.STACKALLOC && code.operand(start - 1) == 0) {
+            start--;
+        }
+        if (depth[start] != 0) {
+            return -1;
+        }
+        for (int j = start; j <= call; j++) {
+            Opcode op = code.opcode(j);
+            if (op.isBranch() || op == Opcode.RET || (j > start && isTarget[j])) {
+                return -1;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * 第 i 条指令是 ret，或者是跳到 ret 的 br
+     */
+    private static boolean isReturn(CodeBuffer code, int i) {
+        if (i >= code.size()) {
+            return false;
+        }
+        Opcode op = code.opcode(i);
+        if (op == Opcode.BR) {
+            int target = (int) (i + 1 + code.operand(i));
+            return target < code.size() && code.opcode(target) == Opcode.RET;
+        }
+        return op == Opcode.RET;
+    }
+}
@@ -2,6 +2,7 @@ package test;
 
 import error.CompileError;
 import error.TokenizeError;
+import tokenizer.ScannerStringIter;
 import tokenizer.StringIter;
 import tokenizer.Token;
 import tokenizer.Tokenizer;
@@ -14,7 +15,7 @@ import java.util.Scanner;
 public class AnalyserTest {
     public static void main(String[] args) throws FileNotFoundException, CompileError {
         Scanner sc = new Scanner(new File(args[0]));
-        StringIter it = new StringIter(sc);
+        StringIter it = new ScannerStringIter(sc);
         Tokenizer tn = new Tokenizer(it);
         Analyser an = new Analyser(tn);
         an.analyse();
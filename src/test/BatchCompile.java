@@ -0,0 +1,154 @@
+package test;
+
+import o0.ModuleWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 在一个 JVM 里并行编译一批源文件
+ * 每个文件用自己的 StringIter / Tokenizer / Analyser（见 FinalTest.compile），在 work-stealing 线程池里同时编译和写出
+ * 最后报告编译的文件数、每秒文件数和写出的总字节数
+ *
+ * 用法：java test.BatchCompile [-o 输出目录] [-j 线程数] 文件或目录...
+ * 目录会递归展开，跳过 .o0 和 .java 文件；没有 -o 时输出到 输入文件.o0，
+ * 有 -o 时输出到 输出目录/输入文件相对于所在参数目录的路径.o0，两个输入写到同一个输出时报错退出
+ */
+public class BatchCompile {
+    /**
+     * 一个文件的编译结果，出错时 error 不为 null
+     */
+    static class Result {
+        final Path input;
+        final int bytes;
+        final String error;
+
+        Result(Path input, int bytes, String error) {
+            this.input = input;
+            this.bytes = bytes;
+            this.error = error;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        Path outputDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> inputs = new ArrayList<>();
+        // 每个输入在 -o 目录下的相对路径
+        List<Path> relatives = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o")) {
+                outputDir = Paths.get(args[++i]);
+            } else if (args[i].equals("-j")) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                addInputs(Paths.get(args[i]), inputs, relatives);
+            }
+        }
+        if (outputDir != null) {
+            Files.createDirectories(outputDir);
+        }
+
+        List<Path> outputs = new ArrayList<>();
+        Set<Path> seen = new HashSet<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            Path output = outputDir == null
+                    ? Paths.get(inputs.get(i) + ".o0")
+                    : outputDir.resolve(relatives.get(i) + ".o0");
+            if (!seen.add(output.toAbsolutePath().normalize())) {
+                System.err.println(inputs.get(i) + ": output " + output + " is written by another input");
+                System.exit(2);
+            }
+            outputs.add(output);
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            Path input = inputs.get(i);
+            Path output = outputs.get(i);
+            tasks.add(() -> compileOne(input, output));
+        }
+        List<Result> results = new ArrayList<>();
+        List<Future<Result>> futures = pool.invokeAll(tasks);
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                results.add(new Result(inputs.get(i), 0, e.getCause().toString()));
+            }
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long totalBytes = 0;
+        int failed = 0;
+        for (Result result : results) {
+            if (result.error != null) {
+                failed++;
+                System.err.println(result.input + ": " + result.error);
+            } else {
+                totalBytes += result.bytes;
+            }
+        }
+        System.out.println(String.format("compiled %d files (%d failed) in %.3f s on %d threads: %.1f files/sec, %d bytes written",
+                results.size(), failed, seconds, threads, results.size() / seconds, totalBytes));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 编译一个文件，编译器里抛出的任何异常和 Error（包括嵌套太深时的 StackOverflowError）都记为这个文件失败，
+     * 只有内存不够之类的其他 VirtualMachineError 继续往外抛
+     */
+    static Result compileOne(Path input, Path output) {
+        try {
+            ModuleWriter writer = FinalTest.compile(input);
+            if (output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            return new Result(input, writer.writeTo(output), null);
+        } catch (StackOverflowError e) {
+            return new Result(input, 0, e.toString());
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Throwable e) {
+            return new Result(input, 0, e.toString());
+        }
+    }
+
+    /**
+     * 文件直接加入，相对路径是文件名；目录递归展开，相对路径是相对于这个目录的路径
+     */
+    private static void addInputs(Path path, List<Path> inputs, List<Path> relatives) throws IOException {
+        if (!Files.isDirectory(path)) {
+            inputs.add(path);
+            relatives.add(path.getFileName());
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(path)) {
+            for (Path file : stream
+                    .filter(Files::isRegularFile)
+                    .filter(p -> !p.toString().endsWith(".o0") && !p.toString().endsWith(".java"))
+                    .sorted()
+                    .collect(Collectors.toList())) {
+                inputs.add(file);
+                relatives.add(path.relativize(file));
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package test;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * 编译服务的客户端，命令行和 FinalTest 一样：
+ *     java test.CompileClient 输入文件 输出文件 [--parallel]
+ * 本进程的 -Dopt.*、-Dinline.threshold、-Dloop.rotate 和 --parallel 都随请求转发，服务按这些开关编译，
+ * 写出的文件和 FinalTest 相同；和 FinalTest 不同的是，经过服务编译时不在 stdout 输出源文件和指令表
+ * 编译出错时把错误信息打到 stderr，并以非 0 状态退出
+ * 连不上编译服务（或者没有令牌文件）时直接在本进程里运行 FinalTest
+ * 端口可以用 -Dcompile.port=... 指定，默认是 CompileServer.DEFAULT_PORT
+ */
+public class CompileClient {
+    public static void main(String[] args) throws Exception {
+        int port = Integer.getInteger("compile.port", CompileServer.DEFAULT_PORT);
+        // 服务的工作目录不一定和这里相同，统一传绝对路径
+        String input = Paths.get(args[0]).toAbsolutePath().toString();
+        String output = Paths.get(args[1]).toAbsolutePath().toString();
+        StringBuilder request = new StringBuilder(input).append('\t').append(output);
+        if (args.length > 2 && args[2].equals("--parallel")) {
+            request.append("\t--parallel");
+        }
+        Properties options = FinalTest.options(System.getProperties());
+        for (String name : options.stringPropertyNames()) {
+            request.append('\t').append(name).append('=').append(options.getProperty(name));
+        }
+        String token;
+        try {
+            token = new String(Files.readAllBytes(CompileServer.tokenFile(port)), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            FinalTest.main(args);
+            return;
+        }
+        String reply;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            out.println(token);
+            out.println(request);
+            reply = in.readLine();
+        } catch (ConnectException e) {
+            FinalTest.main(args);
+            return;
+        }
+        if (reply == null) {
+            System.err.println("compile server closed the connection");
+            System.exit(2);
+        }
+        if (!reply.startsWith("ok ")) {
+            System.err.println(reply.startsWith("error ") ? reply.substring(6) : reply);
+            System.exit(1);
+        }
+    }
+}
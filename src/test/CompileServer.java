@@ -0,0 +1,178 @@
+package test;
+
+import error.CompileError;
+import o0.ModuleWriter;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 常驻的编译服务，JVM 只启动一次，编译多个文件时不用每次都重新启动和预热
+ * 只监听本机的端口。启动时生成一个随机令牌，写到只有自己能读写的令牌文件里（见 tokenFile）；
+ * 本机的其他用户读不到令牌，也就不能让服务替自己读写文件或者关掉服务。
+ * 每个连接的第一行必须是令牌，不对时回复 error unauthorized 并断开。之后可以发多个请求，每行一个：
+ *     输入文件 \t 输出文件 [\t --parallel] [\t 名字=值]...
+ * 名字=值 是 FinalTest 的 -D 开关（opt.*、inline.threshold、loop.rotate），没给的按默认值，
+ * 不用服务自己启动时的 -D 设置，所以结果和在客户端那边运行 FinalTest 一样
+ * 每个请求回复一行：
+ *     ok 输出文件 字节数
+ *     error 错误信息
+ * 收到 shutdown 时回复 ok 并退出
+ *
+ * 用法：java test.CompileServer [端口]
+ */
+public class CompileServer {
+    public static final int DEFAULT_PORT = 7070;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService pool;
+    private final Path tokenFile;
+    private final byte[] token;
+    private volatile boolean running = true;
+
+    public CompileServer(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.tokenFile = tokenFile(serverSocket.getLocalPort());
+        this.token = newToken().getBytes(StandardCharsets.UTF_8);
+        writeTokenFile(tokenFile, token);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        CompileServer server = new CompileServer(port);
+        System.err.println("compile server listening on " + server.serverSocket.getLocalSocketAddress());
+        server.serve();
+    }
+
+    /**
+     * 端口 port 上的服务的令牌文件，默认放在用户主目录下，可以用 -Dcompile.token.file=... 指定
+     */
+    public static Path tokenFile(int port) {
+        String path = System.getProperty("compile.token.file");
+        if (path != null) {
+            return Paths.get(path);
+        }
+        return Paths.get(System.getProperty("user.home"), ".c0-compile-server-" + port + ".token");
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 重新建令牌文件，建的时候就只有自己能读写，不会有别人能读到的时刻
+     */
+    private static void writeTokenFile(Path path, byte[] token) throws IOException {
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // 不是 POSIX 文件系统，只能用默认权限
+            Files.createFile(path);
+        }
+        Files.write(path, token);
+    }
+
+    public void serve() throws IOException {
+        try {
+            while (running) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) {
+                    // shutdown 时关闭了 serverSocket
+                    if (!running) {
+                        break;
+                    }
+                    throw e;
+                }
+                pool.execute(() -> handleConnection(socket));
+            }
+        } finally {
+            pool.shutdown();
+            Files.deleteIfExists(tokenFile);
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            String first = in.readLine();
+            if (first == null || !MessageDigest.isEqual(token, first.getBytes(StandardCharsets.UTF_8))) {
+                out.println("error unauthorized");
+                return;
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals("shutdown")) {
+                    out.println("ok shutdown");
+                    shutdown();
+                    return;
+                }
+                out.println(handleRequest(line));
+            }
+        } catch (IOException e) {
+            // 客户端断开了，不影响其他连接
+        }
+    }
+
+    /**
+     * 处理一个编译请求，返回回复的那一行
+     */
+    static String handleRequest(String line) {
+        String[] parts = line.split("\t");
+        if (parts.length < 2) {
+            return "error bad request: " + line;
+        }
+        boolean parallel = false;
+        Properties options = new Properties();
+        for (int i = 2; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            if (parts[i].equals("--parallel")) {
+                parallel = true;
+            } else if (eq > 0) {
+                options.setProperty(parts[i].substring(0, eq), parts[i].substring(eq + 1));
+            } else {
+                return "error bad request: " + line;
+            }
+        }
+        try {
+            ModuleWriter writer = FinalTest.compile(Paths.get(parts[0]), parallel, null, options);
+            int size = writer.writeTo(Paths.get(parts[1]));
+            return "ok " + parts[1] + " " + size;
+        } catch (CompileError | IOException | RuntimeException e) {
+            // 一个文件出错不能让服务退出
+            return "error " + e.toString().replace('\n', ' ');
+        }
+    }
+
+    private void shutdown() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // 已经关闭了
+        }
+    }
+}
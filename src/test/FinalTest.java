@@ -1,15 +1,28 @@
 package test;
 
 import analyser.Analyser;
-import analyser.FunctionIndex;
-import analyser.InstructionEntry;
-import analyser.SymbolEntry;
 import error.CompileError;
+import o0.Function;
+import o0.Global;
+import o0.ModuleBuilder;
+import o0.ModuleWriter;
+import o0.TreeShaker;
+import optimizer.DeadCodeElimination;
+import optimizer.Inliner;
+import optimizer.LocalSlotColoring;
+import optimizer.LoopInvariantCodeMotion;
+import optimizer.Peephole;
+import optimizer.TailRecursion;
+import tokenizer.MappedStringIter;
 import tokenizer.StringIter;
 import tokenizer.Tokenizer;
 
 import java.io.*;
-import java.util.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
 
 public class FinalTest {
     public static void main(String[] args) throws IOException, CompileError {
@@ -26,266 +39,146 @@ public class FinalTest {
             }catch(IOException e2){
                 e2.printStackTrace();
             }
-        Global[] globals = new Global[1000];
-        int globalCount = 0;
-        Function[] functions = new Function[1000];
-        int functionCount = 0;
-        Scanner sc = new Scanner(new File(args[0]));
-        StringIter it = new StringIter(sc);
-        Tokenizer tn = new Tokenizer(it);
-        Analyser an = new Analyser(tn);
-        an.analyse();
-        HashMap<String, SymbolEntry> symbolTable = an.getSymbolTable();
-        Iterator iter = symbolTable.entrySet().iterator();
-        int top = 0;
-        int trueGlobalVarsCount = 0;
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            SymbolEntry symbolEntry = (SymbolEntry) entry.getValue();
-            if(!symbolEntry.getType().equals("func")){
-                trueGlobalVarsCount++;
-                if(symbolEntry.getType().equals("string")){
-                    String name = (String)entry.getKey();
-                    System.out.println(name);
-                    globals[top++] = new Global(symbolEntry.isConstant() ? 1 : 0, name.length(), name);
-                }
-                else{
-                    globals[top++] = new Global(symbolEntry.isConstant() ? 1 : 0, 8, "0");
-                }
-            }
-        }
-        int globalVarsEnd = top;
-        iter = symbolTable.entrySet().iterator();
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            String name = entry.getKey().toString();
-            SymbolEntry symbolEntry = (SymbolEntry) entry.getValue();
-            if(symbolEntry.getType().equals("func")){
-                int funcIndex = an.getFuncIndex().get(name);
-                globals[funcIndex + globalVarsEnd] = new Global(1, name.length(), name);
-                top++;
+        // 第三个参数是 --parallel 时并行分析函数体
+        boolean parallel = args.length > 2 && args[2].equals("--parallel");
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        ModuleWriter writer = compile(Paths.get(args[0]), parallel, stats);
+        System.out.println("语法分析完成");
+        // -Dopt.verbose=true 时输出各个优化的统计
+        if (Boolean.getBoolean("opt.verbose")) {
+            for (Map.Entry<String, Integer> entry : stats.entrySet()) {
+                System.out.println(entry.getKey() + ": " + entry.getValue());
             }
         }
-        globalCount = top;
+        Global[] globals = writer.getGlobals();
+        Function[] functions = writer.getFunctions();
         System.out.println("全局变量表：");
-        for(int i = 0;i < top;i++){
-            System.out.println(globals[i].isConst + " " + globals[i].valueCount + " " + globals[i].valueItem);
+        for(int i = 0;i < writer.getGlobalCount();i++){
+            System.out.println(globals[i].getIsConst() + " " + globals[i].getValueCount() + " " + globals[i].getValueItem());
         }
-        int funcTableTop = 0;
-        for(int i = globalVarsEnd + 8;i < globalCount;i++){
-            String funcName = globals[i].valueItem;
-            SymbolEntry funcEntry = symbolTable.get(funcName);
-            int ret_slots = 0;
-            if(funcEntry.getReturnType().equals("int")){
-                ret_slots = 1;
-            }
-            int param_slots = funcEntry.getArgVarCount();
-            int loc_slots = funcEntry.getLocaVarCount();
-            int body_count = funcEntry.getInstructionLen();
-            InstructionEntry[] instructionEntries = funcEntry.getInstructions();
-            if(funcName.equals("_start")){
-                functions[funcTableTop++] = new Function(i, 0, 0, 0, body_count, instructionEntries);
-            }
-            else{
-                functions[funcTableTop++] = new Function(i, ret_slots, param_slots - 1, loc_slots, body_count, instructionEntries);
+        System.out.println("函数表：");
+        for(int i = 0;i < writer.getFunctionCount();i++){
+            System.out.println(functions[i].getNameLoc() + " " + functions[i].getRetSlots() + " " + functions[i].getParamSlots() + " " + functions[i].getLocSlots() + " " + functions[i].getBodyCount());
+            for(int j = 0;j < functions[i].getBodyCount();j++){
+                System.out.println(functions[i].getCode().toString(j));
             }
         }
-        functionCount = funcTableTop;
-        System.out.println("函数表：");
-        for(int i = 0;i < funcTableTop;i++){
-            System.out.println(functions[i].nameLoc + " " + functions[i].ret_slots + " " + functions[i].param_slots + " " + functions[i].loc_slots + " " + functions[i].body_count);
-            for(int j = 0;j < functions[i].body_count;j++){
-                System.out.println(functions[i].instructions[j].getInstru() + "(" + functions[i].instructions[j].getOpera() + ")");
+        System.out.println(writer.getGlobalCount());
+        System.out.println(writer.getFunctionCount());
+        writer.writeTo(Paths.get(args[1]));
+    }
+
+    /**
+     * 编译一个源文件，得到可以写出的 o0 模块
+     * 每次调用都用自己的 StringIter / Tokenizer / Analyser，没有共享的状态，可以在多个线程里同时调用
+     */
+    public static ModuleWriter compile(Path input) throws IOException, CompileError {
+        return compile(input, false);
+    }
+
+    /**
+     * @param parallel 为 true 时用 Analyser.analyseParallel()，输出和顺序分析完全相同
+     */
+    public static ModuleWriter compile(Path input, boolean parallel) throws IOException, CompileError {
+        return compile(input, parallel, null);
+    }
+
+    /**
+     * @param stats 不为 null 时记下各个优化的统计（说明 -> 数量），按执行顺序排列
+     */
+    public static ModuleWriter compile(Path input, boolean parallel, Map<String, Integer> stats) throws IOException, CompileError {
+        return compile(input, parallel, stats, System.getProperties());
+    }
+
+    /**
+     * @param options 优化开关（opt.*、inline.threshold、loop.rotate），命令行上就是 -D 给的系统属性；
+     *                CompileServer 用客户端转发过来的开关，不用服务自己的
+     */
+    public static ModuleWriter compile(Path input, boolean parallel, Map<String, Integer> stats, Properties options) throws IOException, CompileError {
+        StringIter it = MappedStringIter.open(input);
+        Tokenizer tn = new Tokenizer(it);
+        Analyser an = new Analyser(tn);
+        // -Dloop.rotate=false 时 while 循环按原来的形式生成
+        an.setRotateLoops(Boolean.parseBoolean(options.getProperty("loop.rotate", "true")));
+        if (parallel) {
+            an.analyseParallel();
+        } else {
+            an.analyse();
+        }
+        if (enabled(options, "dce")) {
+            Map<String, Integer> deadCode = new DeadCodeElimination().run(an);
+            if (stats != null) {
+                int total = 0;
+                for (Map.Entry<String, Integer> entry : deadCode.entrySet()) {
+                    stats.put("死代码消除删除的指令 " + entry.getKey(), entry.getValue());
+                    total += entry.getValue();
+                }
+                stats.put("死代码消除删除的指令", total);
             }
         }
-        System.out.println(globalCount);
-        System.out.println(functionCount);
-        List<Byte> output = new ArrayList<>();
-        //magic
-        List<Byte> magic=int2bytes(4,0x72303b3e);
-        output.addAll(magic);
-        //version
-        List<Byte> version=int2bytes(4,0x00000001);
-        output.addAll(version);
-        //globals.count
-        List<Byte> globalCountByte=int2bytes(4, globalCount);
-        output.addAll(globalCountByte);
-        for(int i = 0;i < globalCount;i++){
-            //isConst
-            List<Byte> isConst=int2bytes(1, globals[i].isConst);
-            output.addAll(isConst);
-            // value count
-            List<Byte> globalValueCountByte;
-            //value items
-            List<Byte> globalValueItemByte;
-            if(globals[i].valueItem.equals("0")){
-                globalValueCountByte = int2bytes(4, 8);
-                globalValueItemByte = long2bytes(8,0L);
+        if (enabled(options, "peephole")) {
+            new Peephole().run(an);
+        }
+        ModuleWriter module = ModuleBuilder.build(an);
+        if (enabled(options, "tailrec")) {
+            TailRecursion tailRecursion = new TailRecursion();
+            module = tailRecursion.run(module);
+            if (stats != null) {
+                stats.put("改写成循环的尾递归调用", tailRecursion.getRewrittenCount());
             }
-            else {
-                globalValueItemByte = String2bytes(globals[i].valueItem);
-                globalValueCountByte = int2bytes(4, globals[i].valueCount);
+        }
+        // 内联后不再被调用的函数由 TreeShaker 删掉
+        int threshold = Integer.parseInt(options.getProperty("inline.threshold", String.valueOf(Inliner.DEFAULT_THRESHOLD)));
+        if (threshold > 0) {
+            Inliner inliner = new Inliner(threshold);
+            module = inliner.run(module);
+            if (stats != null) {
+                stats.put("内联的调用", inliner.getInlinedCount());
             }
-            output.addAll(globalValueCountByte);
-            output.addAll(globalValueItemByte);
         }
-        //functions.count
-        List<Byte> functionCountByte=int2bytes(4, functionCount);
-        output.addAll(functionCountByte);
-        //functions
-        for(int i = 0;i < functionCount;i++){
-            //name
-            List<Byte> name = int2bytes(4,functions[i].nameLoc);
-            output.addAll(name);
-            //retSlots
-            List<Byte> retSlots = int2bytes(4,functions[i].ret_slots);
-            output.addAll(retSlots);
-            //paramsSlots;
-            List<Byte> paramsSlots=int2bytes(4,functions[i].param_slots);
-            output.addAll(paramsSlots);
-            //locSlots;
-            List<Byte> locSlots=int2bytes(4,functions[i].loc_slots);
-            output.addAll(locSlots);
-            //bodyCount
-            List<Byte> bodyCount=int2bytes(4, functions[i].body_count);
-            output.addAll(bodyCount);
-            //instructions
-            for(int j = 0;j < functions[i].body_count;j++){
-                InstructionEntry instructionEntry = functions[i].instructions[j];
-                int intInstru = instruToInt(instructionEntry.getInstru());
-                List<Byte> instruByte = int2bytes(1, intInstru);
-                output.addAll(instruByte);
-                if(instructionEntry.getOpera() != -1000){
-                    int opera = instructionEntry.getOpera();
-                    if(intInstru == 0x4a){
-                        //System.out.println(trueGlobalVarsCount);
-                        opera = opera + trueGlobalVarsCount;
-                        System.out.println();
-                        System.out.println(opera);
-                    }
-                    boolean is64OrNot = is64(instructionEntry.getInstru());
-                    if(is64OrNot){
-                        List<Byte> operaByte = long2bytes(8, opera);
-                        output.addAll(operaByte);
-                    }
-                    else{
-                        List<Byte> operaByte = int2bytes(4, opera);
-                        output.addAll(operaByte);
-                    }
-                }
+        if (enabled(options, "licm")) {
+            LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion();
+            module = licm.run(module);
+            if (stats != null) {
+                stats.put("挪出循环的不变表达式", licm.getHoistedCount());
             }
         }
-        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(args[1])));
-        List<Byte> bytes = output;
-        byte[] resultBytes = new byte[bytes.size()];
-        for (int i = 0; i < bytes.size(); ++i) {
-            resultBytes[i] = bytes.get(i);
+        if (enabled(options, "slots")) {
+            LocalSlotColoring coloring = new LocalSlotColoring();
+            module = coloring.run(module);
+            if (stats != null) {
+                stats.put("减少的局部变量槽位", coloring.getSavedSlots());
+            }
         }
-        out.write(resultBytes);
-    }
-    private static List<Byte> Char2bytes(char value) {
-        List<Byte>  AB=new ArrayList<>();
-        AB.add((byte)(value&0xff));
-        return AB;
-    }
-
-    private static List<Byte> String2bytes(String valueString) {
-        List<Byte>  AB=new ArrayList<>();
-        for (int i=0;i<valueString.length();i++){
-            char ch=valueString.charAt(i);
-            AB.add((byte)(ch&0xff));
+        if (enabled(options, "shake")) {
+            TreeShaker shaker = new TreeShaker();
+            module = shaker.shake(module);
+            if (stats != null) {
+                stats.put("删除的函数", shaker.getRemovedFunctions());
+                stats.put("删除的全局变量和函数名", shaker.getRemovedGlobals());
+            }
         }
-        return AB;
+        return module;
     }
 
-    private static List<Byte> long2bytes(int length, long target) {
-        ArrayList<Byte> bytes = new ArrayList<>();
-        int start = 8 * (length-1);
-        for(int i = 0 ; i < length; i++){
-            bytes.add((byte) (( target >> ( start - i * 8 )) & 0xFF ));
-        }
-        return bytes;
+    /**
+     * 优化 name 没有用 -Dopt.name=false 关掉
+     * 每个优化都可以单独关掉，输出不对时方便找出是哪个优化出的问题
+     */
+    private static boolean enabled(Properties options, String name) {
+        return !"false".equals(options.getProperty("opt." + name));
     }
 
-    private static ArrayList<Byte> int2bytes(int length,int target){
-        ArrayList<Byte> bytes = new ArrayList<>();
-        int start = 8 * (length-1);
-        for(int i = 0 ; i < length; i++){
-            bytes.add((byte) (( target >> ( start - i * 8 )) & 0xFF ));
-        }
-        return bytes;
-    }
-    private static int instruToInt(String name){
-        switch (name){
-            case "stackalloc":
-                return 0x1a;
-            case "call":
-                return 0x48;
-            case "callname":
-                return 0x4a;
-            case "loca":
-                return 0x0a;
-            case "store64":
-                return 0x17;
-            case "arga":
-                return 0x0b;
-            case "load64":
-                return 0x13;
-            case "push":
-                return 0x01;
-            case "ret":
-                return 0x49;
-            case "br":
-                return 0x41;
-            case "globa":
-                return 0x0c;
-            case "cmpi":
-                return 0x30;
-            case "brfalse":
-                return 0x42;
-            case "brtrue":
-                return 0x43;
-            case "setlt":
-                return 0x39;
-            case "setgt":
-                return 0x3a;
-            case "addi":
-                return 0x20;
-            case "subi":
-                return 0x21;
-            case "multi":
-                return 0x22;
-            case "divi":
-                return 0x23;
-            case "negi":
-                return 0x34;
-        }
-        return 0;
-    }
-    private static boolean is64(String name){
-        switch (name){
-            case "stackalloc":
-                return false;
-            case "call":
-                return false;
-            case "callname":
-                return false;
-            case "loca":
-                return false;
-            case "arga":
-                return false;
-            case "push":
-                return true;
-            case "br":
-                return false;
-            case "globa":
-                return false;
-            case "brfalse":
-                return false;
-            case "brtrue":
-                return false;
+    /**
+     * 从 properties 里挑出会影响编译结果的开关，CompileClient 把它们转发给 CompileServer
+     */
+    public static Properties options(Properties properties) {
+        Properties options = new Properties();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("opt.") || name.equals("inline.threshold") || name.equals("loop.rotate")) {
+                options.setProperty(name, properties.getProperty(name));
+            }
         }
-        return false;
+        return options;
     }
 }
-
@@ -1,12 +0,0 @@
-package test;
-
-public class Global {
-    int isConst;
-    int valueCount;
-    String valueItem;
-    public Global(int isConst, int valueCount, String valueItem){
-        this.isConst = isConst;
-        this.valueCount = valueCount;
-        this.valueItem = valueItem;
-    }
-}
@@ -1,19 +1,20 @@
 package test;
 
 import analyser.Analyser;
-import analyser.InstructionEntry;
+import analyser.CodeBuffer;
 import analyser.SymbolEntry;
 import error.AnalyzeError;
 import error.CompileError;
 import error.ErrorCode;
+import tokenizer.ScannerStringIter;
+import tokenizer.NameTable;
 import tokenizer.StringIter;
 import tokenizer.Tokenizer;
+import util.IntMap;
 import util.Pos;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Scanner;
 
 public class InstructionsTest {
@@ -23,7 +24,7 @@ public class InstructionsTest {
     static int varsCount = 0;
     public static void main(String[] args) throws FileNotFoundException, CompileError {
         Scanner sc = new Scanner(new File(args[0]));
-        StringIter it = new StringIter(sc);
+        StringIter it = new ScannerStringIter(sc);
         Tokenizer tn = new Tokenizer(it);
         Analyser an = new Analyser(tn);
         an.analyse();
@@ -34,26 +35,26 @@ public class InstructionsTest {
 //        Object key = entry.getKey();
 //        Object val = entry.getValue();
 
-        HashMap<String, SymbolEntry> symbolTable = an.getSymbolTable();
-        tide(symbolTable);
+        IntMap<SymbolEntry> symbolTable = an.getSymbolTable();
+        tide(symbolTable, an.getNames());
         if(!an.hasMain()){
             throw new AnalyzeError(ErrorCode.MainFuncMissing,new Pos(0,0));
         }
     }
-    public static void tide(HashMap<String, SymbolEntry> symbolTable){
-        Iterator iter = symbolTable.entrySet().iterator();
+    public static void tide(IntMap<SymbolEntry> symbolTable, NameTable names){
         int globalCount = 0;
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            String name = entry.getKey().toString();
-            SymbolEntry symbolEntry = (SymbolEntry) entry.getValue();
+        for(int k = 0;k < symbolTable.entryCount();k++){
+            SymbolEntry symbolEntry = symbolTable.valueAt(k);
+            if(symbolEntry == null){
+                continue;
+            }
+            String name = names.name(symbolTable.keyAt(k));
             //函数
             if(symbolEntry.getType().equals("func")){
-                InstructionEntry[] instructionEntries = symbolEntry.getInstructions();
-                int instructionLen = symbolEntry.getInstructionLen();
+                CodeBuffer code = symbolEntry.getCode();
                 System.out.println("函数 " + name + " :");
-                for(int i = 0;i < instructionLen;i++){
-                    System.out.println(instructionEntries[i].getInstru() + "(" + instructionEntries[i].getOpera() +")");
+                for(int i = 0;code != null && i < code.size();i++){
+                    System.out.println(code.toString(i));
                 }
 
             }
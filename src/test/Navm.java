@@ -0,0 +1,332 @@
+package test;
+
+import instruction.Opcode;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 一个很小的 o0 解释器，只给 SampleTest 检查编译出来的程序的输出用
+ * 直接读 ModuleWriter 写出的字节，只实现编译器会生成的指令和 getint / getchar / putint / putchar / putstr / putln。
+ * 栈上的值都是 long；地址也放在栈上，栈上第 i 格的地址就是 i，第 g 个全局变量的地址是 GLOBAL_BASE + g
+ */
+public class Navm {
+    private static final long GLOBAL_BASE = 1L << 40;
+    // 栈最多这么多格，超过时当作栈溢出
+    private static final int MAX_STACK = 1 << 24;
+
+    private static final Opcode[] OPCODES = new Opcode[256];
+
+    static {
+        for (Opcode op : Opcode.values()) {
+            // PUSH_STR 写出时就是 push
+            if (OPCODES[op.getCode() & 0xff] == null) {
+                OPCODES[op.getCode() & 0xff] = op;
+            }
+        }
+    }
+
+    private final byte[][] globals;
+    private final long[] globalValues;
+    private final int[] nameOf;
+    private final int[] retSlots;
+    private final int[] paramSlots;
+    private final int[] locSlots;
+    private final Opcode[][] opcodes;
+    private final long[][] operands;
+
+    private long[] stack;
+    private long steps;
+
+    public Navm(byte[] module) {
+        ByteBuffer buffer = ByteBuffer.wrap(module);
+        if (buffer.getInt() != 0x72303b3e || buffer.getInt() != 1) {
+            throw new IllegalArgumentException("not an o0 module");
+        }
+        int globalCount = buffer.getInt();
+        globals = new byte[globalCount][];
+        globalValues = new long[globalCount];
+        for (int i = 0; i < globalCount; i++) {
+            buffer.get();
+            globals[i] = new byte[buffer.getInt()];
+            buffer.get(globals[i]);
+            if (globals[i].length == 8) {
+                globalValues[i] = ByteBuffer.wrap(globals[i]).getLong();
+            }
+        }
+        int functionCount = buffer.getInt();
+        nameOf = new int[functionCount];
+        retSlots = new int[functionCount];
+        paramSlots = new int[functionCount];
+        locSlots = new int[functionCount];
+        opcodes = new Opcode[functionCount][];
+        operands = new long[functionCount][];
+        for (int k = 0; k < functionCount; k++) {
+            nameOf[k] = buffer.getInt();
+            retSlots[k] = buffer.getInt();
+            paramSlots[k] = buffer.getInt();
+            locSlots[k] = buffer.getInt();
+            int count = buffer.getInt();
+            opcodes[k] = new Opcode[count];
+            operands[k] = new long[count];
+            for (int i = 0; i < count; i++) {
+                Opcode op = OPCODES[buffer.get() & 0xff];
+                if (op == null) {
+                    throw new IllegalArgumentException("unknown opcode in function " + k);
+                }
+                opcodes[k][i] = op;
+                if (op.getOperandWidth() == 8) {
+                    operands[k][i] = buffer.getLong();
+                } else if (op.getOperandWidth() == 4) {
+                    operands[k][i] = buffer.getInt();
+                }
+            }
+        }
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("trailing bytes after the functions");
+        }
+    }
+
+    /**
+     * 上一次 run 执行的指令条数
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * 从 _start 开始运行，返回程序的标准输出
+     *
+     * @param input    getint / getchar 读的内容
+     * @param maxSteps 最多执行的指令条数，超过时当作死循环
+     * @throws IllegalStateException 除以 0、栈溢出、执行超时等运行错误
+     */
+    public String run(String input, long maxSteps) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] in = input.getBytes(StandardCharsets.UTF_8);
+        int inPos = 0;
+        stack = new long[1024];
+        // 调用栈，每层 4 个值：函数、返回地址、参数基址、局部变量基址
+        int[] frames = new int[64];
+        int frameTop = 0;
+
+        int f = function("_start");
+        int ip = 0;
+        int base = 0;
+        int localBase = 0;
+        int sp = locSlots[f];
+        steps = 0;
+        while (true) {
+            if (++steps > maxSteps) {
+                throw new IllegalStateException("step limit exceeded");
+            }
+            if (ip >= opcodes[f].length) {
+                if (frameTop == 0) {
+                    break;
+                }
+                throw new IllegalStateException("fell off the end of " + name(f));
+            }
+            // 每条指令最多压入两格
+            reserve(sp + 2);
+            Opcode op = opcodes[f][ip];
+            long x = operands[f][ip];
+            ip++;
+            switch (op) {
+                case NOP:
+                    break;
+                case PUSH:
+                case PUSH_STR:
+                    stack[sp++] = x;
+                    break;
+                case POP:
+                    sp--;
+                    break;
+                case POPN:
+                    sp -= (int) x;
+                    break;
+                case DUP:
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    break;
+                case LOCA:
+                    stack[sp++] = localBase + x;
+                    break;
+                case ARGA:
+                    stack[sp++] = base + x;
+                    break;
+                case GLOBA:
+                    stack[sp++] = GLOBAL_BASE + x;
+                    break;
+                case LOAD_64: {
+                    long address = stack[sp - 1];
+                    stack[sp - 1] = address >= GLOBAL_BASE ? globalValues[(int) (address - GLOBAL_BASE)] : stack[(int) address];
+                    break;
+                }
+                case STORE_64: {
+                    long value = stack[--sp];
+                    long address = stack[--sp];
+                    if (address >= GLOBAL_BASE) {
+                        globalValues[(int) (address - GLOBAL_BASE)] = value;
+                    } else {
+                        stack[(int) address] = value;
+                    }
+                    break;
+                }
+                case STACKALLOC:
+                    reserve(sp + (int) x);
+                    Arrays.fill(stack, sp, sp + (int) x, 0);
+                    sp += (int) x;
+                    break;
+                case ADD_I:
+                    sp--;
+                    stack[sp - 1] += stack[sp];
+                    break;
+                case SUB_I:
+                    sp--;
+                    stack[sp - 1] -= stack[sp];
+                    break;
+                case MUL_I:
+                    sp--;
+                    stack[sp - 1] *= stack[sp];
+                    break;
+                case DIV_I:
+                    sp--;
+                    if (stack[sp] == 0) {
+                        throw new IllegalStateException("division by zero");
+                    }
+                    stack[sp - 1] /= stack[sp];
+                    break;
+                case CMP_I:
+                    sp--;
+                    stack[sp - 1] = Long.compare(stack[sp - 1], stack[sp]);
+                    break;
+                case NEG_I:
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                case NOT:
+                    stack[sp - 1] = stack[sp - 1] == 0 ? 1 : 0;
+                    break;
+                case SET_LT:
+                    stack[sp - 1] = stack[sp - 1] < 0 ? 1 : 0;
+                    break;
+                case SET_GT:
+                    stack[sp - 1] = stack[sp - 1] > 0 ? 1 : 0;
+                    break;
+                case BR:
+                    ip += (int) x;
+                    break;
+                case BR_FALSE:
+                    if (stack[--sp] == 0) {
+                        ip += (int) x;
+                    }
+                    break;
+                case BR_TRUE:
+                    if (stack[--sp] != 0) {
+                        ip += (int) x;
+                    }
+                    break;
+                case CALL: {
+                    int g = (int) x;
+                    if (frameTop + 4 > frames.length) {
+                        frames = Arrays.copyOf(frames, frames.length * 2);
+                    }
+                    frames[frameTop++] = f;
+                    frames[frameTop++] = ip;
+                    frames[frameTop++] = base;
+                    frames[frameTop++] = localBase;
+                    base = sp - retSlots[g] - paramSlots[g];
+                    localBase = sp;
+                    f = g;
+                    ip = 0;
+                    reserve(sp + locSlots[g]);
+                    Arrays.fill(stack, sp, sp + locSlots[g], 0);
+                    sp += locSlots[g];
+                    break;
+                }
+                case RET:
+                    sp = base + retSlots[f];
+                    if (frameTop == 0) {
+                        return out.toString(StandardCharsets.UTF_8);
+                    }
+                    localBase = frames[--frameTop];
+                    base = frames[--frameTop];
+                    ip = frames[--frameTop];
+                    f = frames[--frameTop];
+                    break;
+                case CALLNAME: {
+                    String name = new String(globals[(int) x], StandardCharsets.ISO_8859_1);
+                    switch (name) {
+                        case "getint": {
+                            while (inPos < in.length && Character.isWhitespace(in[inPos])) {
+                                inPos++;
+                            }
+                            int start = inPos;
+                            if (inPos < in.length && in[inPos] == '-') {
+                                inPos++;
+                            }
+                            while (inPos < in.length && Character.isDigit(in[inPos])) {
+                                inPos++;
+                            }
+                            stack[sp - 1] = Long.parseLong(new String(in, start, inPos - start, StandardCharsets.ISO_8859_1));
+                            break;
+                        }
+                        case "getchar":
+                            stack[sp - 1] = inPos < in.length ? in[inPos] & 0xff : -1;
+                            inPos++;
+                            break;
+                        case "putint": {
+                            byte[] digits = Long.toString(stack[--sp]).getBytes(StandardCharsets.ISO_8859_1);
+                            out.write(digits, 0, digits.length);
+                            break;
+                        }
+                        case "putchar":
+                            out.write((int) stack[--sp]);
+                            break;
+                        case "putstr": {
+                            byte[] s = globals[(int) stack[--sp]];
+                            out.write(s, 0, s.length);
+                            break;
+                        }
+                        case "putln":
+                            out.write('\n');
+                            break;
+                        default:
+                            throw new IllegalStateException("unknown library function " + name);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("unsupported instruction " + op);
+            }
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 保证栈至少有 size 格
+     */
+    private void reserve(int size) {
+        if (size <= stack.length) {
+            return;
+        }
+        if (size > MAX_STACK) {
+            throw new IllegalStateException("stack overflow");
+        }
+        stack = Arrays.copyOf(stack, Math.min(MAX_STACK, Math.max(size, stack.length * 2)));
+    }
+
+    private int function(String name) {
+        for (int k = 0; k < nameOf.length; k++) {
+            if (name(k).equals(name)) {
+                return k;
+            }
+        }
+        throw new IllegalStateException("no function " + name);
+    }
+
+    private String name(int k) {
+        return new String(globals[nameOf[k]], StandardCharsets.ISO_8859_1);
+    }
+}
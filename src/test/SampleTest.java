@@ -0,0 +1,124 @@
+package test;
+
+import error.CompileError;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 编译并运行样例，检查输出
+ * 样例目录下有 名字.out 的样例都会检查：用 Navm 运行编译出来的程序，标准输出要和 名字.out 完全相同；
+ * 编译出错的样例，名字.out 里是错误信息（CompileError.toString() 加换行）。有 名字.in 时作为程序的输入。
+ * 每个样例先打开所有优化编译一遍，再把优化一个一个关掉各编译一遍，最后全部关掉、以及并行分析各编译一遍，
+ * 输出都要一样。有不一样的时候打出样例名、开关和两边的输出，并以状态 1 退出
+ *
+ * 用法：java test.SampleTest [样例目录]，默认是 test
+ */
+public class SampleTest {
+    // 每组开关：说明、-D 的设置（名字=值，用空格隔开）
+    private static final String[][] CONFIGS = {
+            {"all passes on", ""},
+            {"-Dopt.dce=false", "opt.dce=false"},
+            {"-Dopt.peephole=false", "opt.peephole=false"},
+            {"-Dopt.shake=false", "opt.shake=false"},
+            {"-Dinline.threshold=0", "inline.threshold=0"},
+            {"-Dopt.tailrec=false", "opt.tailrec=false"},
+            {"-Dopt.licm=false", "opt.licm=false"},
+            {"-Dloop.rotate=false", "loop.rotate=false"},
+            {"-Dopt.slots=false", "opt.slots=false"},
+            {"all passes off", "opt.dce=false opt.peephole=false opt.shake=false inline.threshold=0 "
+                    + "opt.tailrec=false opt.licm=false loop.rotate=false opt.slots=false"},
+    };
+
+    private static final long MAX_STEPS = 100_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "test");
+        List<Path> samples;
+        try (Stream<Path> files = Files.list(dir)) {
+            samples = files.filter(path -> Files.exists(Paths.get(path + ".out")))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        int failed = 0;
+        for (Path sample : samples) {
+            String expected = read(Paths.get(sample + ".out"));
+            Path inputFile = Paths.get(sample + ".in");
+            String input = Files.exists(inputFile) ? read(inputFile) : "";
+            List<String> failures = new ArrayList<>();
+            for (String[] config : CONFIGS) {
+                String actual = compileAndRun(sample, false, options(config[1]), input);
+                check(failures, config[0], expected, actual);
+            }
+            String actual = compileAndRun(sample, true, new Properties(), input);
+            check(failures, "--parallel", expected, actual);
+            if (failures.isEmpty()) {
+                System.out.println("ok   " + sample.getFileName());
+            } else {
+                failed++;
+                System.out.println("FAIL " + sample.getFileName());
+                for (String failure : failures) {
+                    System.out.println(failure);
+                }
+            }
+        }
+        System.out.println(samples.size() + " samples, " + failed + " failed");
+        if (failed != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 编译 sample 并运行，返回标准输出；编译出错时返回错误信息，运行出错时返回运行错误
+     */
+    private static String compileAndRun(Path sample, boolean parallel, Properties options, String input) throws IOException {
+        byte[] module;
+        try {
+            module = FinalTest.compile(sample, parallel, null, options).toByteArray();
+        } catch (CompileError e) {
+            return e.toString() + "\n";
+        }
+        try {
+            return new Navm(module).run(input, MAX_STEPS);
+        } catch (IllegalStateException e) {
+            return "runtime error: " + e.getMessage() + "\n";
+        }
+    }
+
+    private static void check(List<String> failures, String config, String expected, String actual) {
+        if (!expected.equals(actual)) {
+            failures.add("  with " + config + "\n  expected:\n" + indent(expected) + "  actual:\n" + indent(actual));
+        }
+    }
+
+    private static Properties options(String settings) {
+        Properties options = new Properties();
+        for (String setting : settings.split(" ")) {
+            int eq = setting.indexOf('=');
+            if (eq > 0) {
+                options.setProperty(setting.substring(0, eq), setting.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    private static String indent(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : text.split("\n", -1)) {
+            sb.append("    ").append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+}
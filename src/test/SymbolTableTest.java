@@ -4,10 +4,13 @@ import error.AnalyzeError;
 import error.CompileError;
 import error.ErrorCode;
 import error.TokenizeError;
+import tokenizer.ScannerStringIter;
+import tokenizer.NameTable;
 import tokenizer.StringIter;
 import tokenizer.Token;
 import tokenizer.Tokenizer;
 import analyser.*;
+import util.IntMap;
 import util.Pos;
 
 import java.io.File;
@@ -17,7 +20,7 @@ import java.util.*;
 public class SymbolTableTest {
     public static void main(String[] args) throws FileNotFoundException, CompileError {
         Scanner sc = new Scanner(new File(args[0]));
-        StringIter it = new StringIter(sc);
+        StringIter it = new ScannerStringIter(sc);
         Tokenizer tn = new Tokenizer(it);
         Analyser an = new Analyser(tn);
         an.analyse();
@@ -28,12 +31,14 @@ public class SymbolTableTest {
 //        Object key = entry.getKey();
 //        Object val = entry.getValue();
 
-        HashMap<String, SymbolEntry> symbolTable = an.getSymbolTable();
-        Iterator iter = symbolTable.entrySet().iterator();
-        while(iter.hasNext()){
-            HashMap.Entry entry = (HashMap.Entry)iter.next();
-            String name = entry.getKey().toString();
-            SymbolEntry symbolEntry = (SymbolEntry) entry.getValue();
+        IntMap<SymbolEntry> symbolTable = an.getSymbolTable();
+        NameTable names = an.getNames();
+        for(int i = 0;i < symbolTable.entryCount();i++){
+            SymbolEntry symbolEntry = symbolTable.valueAt(i);
+            if(symbolEntry == null){
+                continue;
+            }
+            String name = names.name(symbolTable.keyAt(i));
             //SymbolEntry symbolEntry = symbolTable.get(symbolEntryIterator.next());
             System.out.print(String.format("%s %s %s %d\n", name, symbolEntry.getType(), symbolEntry.getReturnType(), symbolEntry.getLayer()));
         }
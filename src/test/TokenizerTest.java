@@ -10,7 +10,7 @@ public class TokenizerTest {
     public static void main(String[] args) throws FileNotFoundException, TokenizeError {
         Token t = null;
         Scanner sc = new Scanner(new File(args[0]));
-        StringIter it = new StringIter(sc);
+        StringIter it = new ScannerStringIter(sc);
         Tokenizer tn = new Tokenizer(it);
         while(true){
             System.out.println(tn.nextToken());
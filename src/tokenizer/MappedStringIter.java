@@ -0,0 +1,78 @@
+package tokenizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 基于平坦缓冲区的字符迭代器
+ * 源文件通过内存映射整块读入，按字节解释为字符，逐字符读取时不分配任何对象
+ */
+public class MappedStringIter extends StringIter {
+    private final ByteBuffer buffer;
+    // 缓冲区中真实的字节数
+    private final int limit;
+    // 和 ScannerStringIter 一样保证最后一行以 \n 结尾，不是的话在末尾补一个虚拟的 \n
+    private final int length;
+
+    public MappedStringIter(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+        if (limit > 0 && buffer.get(limit - 1) != '\n') {
+            this.length = limit + 1;
+        } else {
+            this.length = limit;
+        }
+    }
+
+    /**
+     * 把文件只读地映射到内存中
+     */
+    public static MappedStringIter open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedStringIter(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static MappedStringIter of(String source) {
+        return new MappedStringIter(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // 整个文件在构造时已经映射好了
+    @Override
+    public void readAll() {
+    }
+
+    @Override
+    char charAt(int offset) {
+        if (offset < limit) {
+            return (char) (buffer.get(offset) & 0xff);
+        }
+        return '\n';
+    }
+
+    /**
+     * 列号按字符数算，和 ScannerStringIter 一致：UTF-8 的后续字节（10xxxxxx）不算，
+     * 四字节的字符在 String 里是两个 char，算两列
+     */
+    @Override
+    int column(int lineStart, int offset) {
+        int col = 0;
+        int end = Math.min(offset, limit);
+        for (int i = lineStart; i < end; i++) {
+            int b = buffer.get(i) & 0xff;
+            if ((b & 0xC0) != 0x80) {
+                col += (b & 0xF8) == 0xF0 ? 2 : 1;
+            }
+        }
+        return col + (offset - end);
+    }
+
+    @Override
+    int length() {
+        return length;
+    }
+}
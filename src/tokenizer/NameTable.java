@@ -0,0 +1,158 @@
+package tokenizer;
+
+import java.util.Arrays;
+
+/**
+ * 标识符驻留表
+ * 每个不同的名字对应一个从 0 开始的稠密整数编号，关键字预先放在最前面，
+ * 这样词法分析时一次探查就能同时认出关键字和标识符，后面的符号表也都按编号索引
+ * 哈希表是开放寻址的，直接拿源文件里的字符去比较，命中时不会创建 String
+ */
+public class NameTable {
+    private static final TokenType[] KEYWORDS = {
+            TokenType.FN_KW, TokenType.LET_KW, TokenType.CONST_KW, TokenType.AS_KW, TokenType.WHILE_KW,
+            TokenType.IF_KW, TokenType.ELSE_KW, TokenType.RETURN_KW, TokenType.BREAK_KW, TokenType.CONTINUE_KW
+    };
+
+    // 开放寻址的哈希表，存放 编号 + 1，0 表示空槽
+    private int[] slots = new int[256];
+
+    // 所有名字的字符依次存放在 chars 里
+    private char[] chars = new char[1024];
+    private int charCount = 0;
+    private int[] starts = new int[128];
+    private int[] lengths = new int[128];
+    private int[] hashes = new int[128];
+    private String[] names = new String[128];
+    private int count = 0;
+
+    public NameTable() {
+        for (TokenType keyword : KEYWORDS) {
+            intern(keyword.toString());
+        }
+    }
+
+    /**
+     * 编号为 id 的名字是关键字时返回对应的类型，否则返回 null
+     */
+    public TokenType keyword(int id) {
+        return id < KEYWORDS.length ? KEYWORDS[id] : null;
+    }
+
+    /**
+     * 驻留源文件中 [start, end) 范围内的名字
+     */
+    int intern(StringIter source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = hash * 31 + source.charAt(i);
+        }
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(id, source, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = add(hash, end - start);
+        for (int i = start; i < end; i++) {
+            chars[starts[id] + i - start] = source.charAt(i);
+        }
+        slots[slot] = id + 1;
+        growIfNeeded();
+        return id;
+    }
+
+    /**
+     * 驻留一个名字
+     */
+    public int intern(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = hash * 31 + name.charAt(i);
+        }
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && name(id).equals(name)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = add(hash, name.length());
+        name.getChars(0, name.length(), chars, starts[id]);
+        names[id] = name;
+        slots[slot] = id + 1;
+        growIfNeeded();
+        return id;
+    }
+
+    /**
+     * 编号为 id 的名字，第一次取时才创建 String
+     */
+    public String name(int id) {
+        if (names[id] == null) {
+            names[id] = new String(chars, starts[id], lengths[id]);
+        }
+        return names[id];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private boolean matches(int id, StringIter source, int start, int end) {
+        if (lengths[id] != end - start) {
+            return false;
+        }
+        int base = starts[id];
+        for (int i = start; i < end; i++) {
+            if (chars[base + i - start] != source.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int add(int hash, int length) {
+        if (count == hashes.length) {
+            int capacity = count * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        int id = count++;
+        starts[id] = charCount;
+        lengths[id] = length;
+        hashes[id] = hash;
+        charCount += length;
+        return id;
+    }
+
+    private void growIfNeeded() {
+        if (count * 2 <= slots.length) {
+            return;
+        }
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+        for (int id = 0; id < count; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = id + 1;
+        }
+        slots = newSlots;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
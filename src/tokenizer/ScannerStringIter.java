@@ -0,0 +1,44 @@
+package tokenizer;
+
+import java.util.Scanner;
+
+/**
+ * 通过 Scanner 逐行读入的字符迭代器，读完后拼成一块平坦的缓冲区
+ */
+public class ScannerStringIter extends StringIter {
+    Scanner scanner;
+
+    char[] buffer = new char[0];
+
+    boolean initialized = false;
+
+    public ScannerStringIter(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    // 一次读入全部内容，并且替换所有换行为 \n
+    // 这样其实是不合理的，这里只是简单起见这么实现
+    @Override
+    public void readAll() {
+        if (initialized) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        while (scanner.hasNext()) {
+            sb.append(scanner.nextLine()).append('\n');
+        }
+        buffer = new char[sb.length()];
+        sb.getChars(0, sb.length(), buffer, 0);
+        initialized = true;
+    }
+
+    @Override
+    char charAt(int offset) {
+        return buffer[offset];
+    }
+
+    @Override
+    int length() {
+        return buffer.length;
+    }
+}
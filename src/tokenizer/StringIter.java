@@ -1,50 +1,18 @@
 package tokenizer;
 
-import java.util.ArrayList;
-import java.util.Optional;
-import java.util.Scanner;
+import java.util.Arrays;
 import util.Pos;
 
 /**
  * 这是一个从 C++ 版本抄过来的字符迭代器
+ * 具体的缓冲区由子类实现：
+ * ScannerStringIter 以行为基础读入，MappedStringIter 把整个文件映射成一块平坦的缓冲区
  */
-public class StringIter {
-    // 以行为基础的缓冲区
-    ArrayList<String> linesBuffer = new ArrayList<>();
-
-    Scanner scanner;
-    // 指向下一个要读取的字符
-    Pos ptrNext = new Pos(0, 0);
-
-    Pos ptr = new Pos(0, 0);
-
-    boolean initialized = false;
-
-    Optional<Character> peeked = Optional.empty();
-
-    public StringIter(Scanner scanner) {
-        this.scanner = scanner;
-    }
-
-    // 从这里开始其实是一个基于行号的缓冲区的实现
-    // 为了简单起见，我们没有单独拿出一个类实现
+public abstract class StringIter {
     // 核心思想和 C 的文件输入输出类似，就是一个 buffer 加一个指针，有三个细节
-    // 1.缓冲区包括 \n
-    // 2.指针始终指向下一个要读取的 char
-    // 3.行号和列号从 0 开始
-
-    // 一次读入全部内容，并且替换所有换行为 \n
-    // 这样其实是不合理的，这里只是简单起见这么实现
-    public void readAll() {
-        if (initialized) {
-            return;
-        }
-        while (scanner.hasNext()) {
-            linesBuffer.add(scanner.nextLine() + '\n');
-        }
-        // todo:check read \n?
-        initialized = true;
-    }
+    // 1.缓冲区包括 \n，并且最后一行一定以 \n 结尾
+    // 2.指针是整个缓冲区上的偏移，始终指向下一个要读取的 char
+    // 3.行号和列号从 0 开始，只在需要报错或输出时才由行首索引换算出来
 
     // 一个简单的总结
     // | 0 | 1 | 2 | 3 | 4 | 5 | 6 | 7 | 8 | 9 | 偏移
@@ -57,85 +25,143 @@ public class StringIter {
     // previousPos() = (0, 8)
     // nextChar() = '\n' 并且指针移动到 (1, 0)
     // unreadLast() 指针移动到 (0, 8)
+
+    // 指向下一个要读取的字符
+    int ptr = 0;
+
+    // 每一行开头的偏移（数组长度就是行数），第一次换算位置时才建立；
+    // 并行分析时几个线程可能同时换算位置，建好后整个数组一次性通过 volatile 发布
+    private volatile int[] lineStarts = null;
+
+    /**
+     * 一次读入全部内容
+     */
+    public abstract void readAll();
+
+    /**
+     * 缓冲区中偏移为 offset 的字符
+     */
+    abstract char charAt(int offset);
+
+    /**
+     * 缓冲区的总长度
+     */
+    abstract int length();
+
+    /**
+     * 获取当前字符的偏移
+     */
+    public int currentOffset() {
+        return ptr;
+    }
+
+    /**
+     * 获取上一个字符的偏移
+     */
+    public int previousOffset() {
+        if (ptr == 0) {
+            throw new Error("previous position from beginning");
+        }
+        return ptr - 1;
+    }
+
+    /**
+     * 把偏移换算成行号和列号
+     */
+    public Pos posOf(int offset) {
+        int[] lineStarts = this.lineStarts;
+        if (lineStarts == null) {
+            lineStarts = buildLineStarts();
+        }
+        int lo = 0;
+        int hi = lineStarts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return new Pos(lo, column(lineStarts[lo], offset));
+    }
+
+    /**
+     * 从行首偏移 lineStart 到 offset 之间的字符数，也就是列号
+     * 缓冲区里一个偏移就是一个字符时直接相减；按字节存放的子类要自己数字符
+     */
+    int column(int lineStart, int offset) {
+        return offset - lineStart;
+    }
+
+    private int[] buildLineStarts() {
+        int[] starts = new int[16];
+        int count = 0;
+        starts[count++] = 0;
+        int len = length();
+        for (int i = 0; i < len; i++) {
+            if (charAt(i) == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        starts = Arrays.copyOf(starts, count);
+        this.lineStarts = starts;
+        return starts;
+    }
+
     /**
      * 获取下一个字符的位置
      */
     public Pos nextPos() {
-        if (ptr.row >= linesBuffer.size()) {
+        if (ptr >= length()) {
             throw new Error("advance after EOF");
         }
-        if (ptr.col == linesBuffer.get(ptr.row).length() - 1) {
-            return new Pos(ptr.row + 1, 0);
-        }
-        return new Pos(ptr.row, ptr.col + 1);
+        return posOf(ptr + 1);
     }
 
     /**
      * 获取当前字符的位置
      */
     public Pos currentPos() {
-        return ptr;
+        return posOf(ptr);
     }
 
     /**
      * 获取上一个字符的位置
      */
     public Pos previousPos() {
-        if (ptr.row == 0 && ptr.col == 0) {
-            throw new Error("previous position from beginning");
-        }
-        if (ptr.col == 0) {
-            return new Pos(ptr.row - 1, linesBuffer.get(ptr.row - 1).length() - 1);
-        }
-        return new Pos(ptr.row, ptr.col - 1);
+        return posOf(previousOffset());
     }
 
     /**
      * 将指针指向下一个字符，并返回当前字符
      */
     public char nextChar() {
-        if (this.peeked.isPresent()) {
-            char ch = this.peeked.get();
-            this.peeked = Optional.empty();
-            this.ptr = ptrNext;
-            return ch;
-        } else {
-            char ch = this.getNextChar();
-            this.ptr = ptrNext;
-            return ch;
-        }
-    }
-
-    private char getNextChar() {
-        if (isEOF()) {
+        if (ptr >= length()) {
             return 0;
         }
-        char result = linesBuffer.get(ptrNext.row).charAt(ptrNext.col);
-        ptrNext = nextPos();
-        return result;
+        return charAt(ptr++);
     }
 
     /**
      * 查看下一个字符，但不移动指针
      */
     public char peekChar() {
-        if (peeked.isPresent()) {
-            return peeked.get();
-        } else {
-            char ch = getNextChar();
-            this.peeked = Optional.of(ch);
-            return ch;
+        if (ptr >= length()) {
+            return 0;
         }
+        return charAt(ptr);
     }
 
-    public Boolean isEOF() {
-        return ptr.row >= linesBuffer.size();
+    public boolean isEOF() {
+        return ptr >= length();
     }
 
     // Note: Is it evil to unread a buffer?
     public void unreadLast() {
-        ptr = previousPos();
+        ptr = previousOffset();
     }
-
 }
-
@@ -0,0 +1,231 @@
+package tokenizer;
+
+import error.TokenizeError;
+import java.util.Arrays;
+import util.Pos;
+
+/**
+ * 整个文件的 token 序列，按列存放在几个平行的基本类型数组里
+ * 每个 token 只占 type / start / end / value 四个槽位，不为每个 token 创建对象，
+ * 语法分析器通过下标访问，可以向前看任意多个 token
+ */
+public class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final StringIter source;
+
+    private final NameTable names;
+
+    // token 的类型（TokenType 的序号）
+    private byte[] types;
+    // token 在源文件中的起止偏移
+    private int[] startOffsets;
+    private int[] endOffsets;
+    // 无符号整数直接存数值，标识符存驻留表中的编号，其他字面量存放在 literals 中的下标
+    private int[] values;
+    private int count = 0;
+
+    // 字符串、字符和浮点数字面量的值
+    private Object[] literals;
+    private int literalCount = 0;
+
+    // 词法分析中途出错时，错误推迟到游标走到出错的位置才抛出，和逐个读 token 时的报错顺序一致
+    private TokenizeError pendingError = null;
+
+    // 指向下一个要读取的 token
+    private int cursor = 0;
+
+    private TokenBuffer(StringIter source, NameTable names, int capacity) {
+        this.source = source;
+        this.names = names;
+        this.types = new byte[capacity];
+        this.startOffsets = new int[capacity];
+        this.endOffsets = new int[capacity];
+        this.values = new int[capacity];
+        this.literals = new Object[Math.max(16, capacity / 4)];
+    }
+
+    /**
+     * 共用同一份 token 序列、但有自己的游标的视图，游标从 cursor 开始
+     * 视图只读取 token，可以在不同的线程里各自使用
+     */
+    public TokenBuffer fork(int cursor) {
+        TokenBuffer view = new TokenBuffer(this);
+        view.cursor = cursor;
+        return view;
+    }
+
+    private TokenBuffer(TokenBuffer other) {
+        this.source = other.source;
+        this.names = other.names;
+        this.types = other.types;
+        this.startOffsets = other.startOffsets;
+        this.endOffsets = other.endOffsets;
+        this.values = other.values;
+        this.count = other.count;
+        this.literals = other.literals;
+        this.literalCount = other.literalCount;
+        this.pendingError = other.pendingError;
+    }
+
+    /**
+     * 把整个文件解析成 token 序列，最后一个 token 总是 EOF（除非中途出错）
+     */
+    public static TokenBuffer lex(Tokenizer tokenizer) {
+        TokenBuffer buffer = new TokenBuffer(tokenizer.getStringIter(), tokenizer.getNames(), 256);
+        while (true) {
+            TokenType tokenType;
+            try {
+                tokenType = tokenizer.lex();
+            } catch (TokenizeError e) {
+                buffer.pendingError = e;
+                return buffer;
+            }
+            buffer.append(tokenType, tokenizer);
+            if (tokenType == TokenType.EOF) {
+                return buffer;
+            }
+        }
+    }
+
+    private void append(TokenType tokenType, Tokenizer tokenizer) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            startOffsets = Arrays.copyOf(startOffsets, capacity);
+            endOffsets = Arrays.copyOf(endOffsets, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        types[count] = (byte) tokenType.ordinal();
+        startOffsets[count] = tokenizer.getLastStartOffset();
+        endOffsets[count] = tokenizer.getLastEndOffset();
+        switch (tokenType) {
+            case UINT_LITERAL:
+            case IDENT:
+                values[count] = tokenizer.getLastIntValue();
+                break;
+            case STRING_LITERAL:
+            case CHAR_LITERAL:
+            case DOUBLE_LITERAL:
+                values[count] = addLiteral(tokenizer.getLastValue());
+                break;
+            default:
+                values[count] = -1;
+        }
+        count++;
+    }
+
+    private int addLiteral(Object value) {
+        if (literalCount == literals.length) {
+            literals = Arrays.copyOf(literals, literalCount * 2);
+        }
+        literals[literalCount] = value;
+        return literalCount++;
+    }
+
+    /**
+     * 查看往后第 k 个 token（k 从 0 开始），但不移动游标
+     *
+     * @return token 的下标
+     * @throws TokenizeError 如果这个位置的 token 解析出错
+     */
+    public int peek(int k) throws TokenizeError {
+        int index = cursor + k;
+        if (index >= count) {
+            if (pendingError != null) {
+                throw pendingError;
+            }
+            // 越过 EOF 之后一直是 EOF
+            index = count - 1;
+        }
+        return index;
+    }
+
+    /**
+     * 获取下一个 token，并移动游标
+     *
+     * @return token 的下标
+     * @throws TokenizeError 如果这个位置的 token 解析出错
+     */
+    public int next() throws TokenizeError {
+        int index = peek(0);
+        if (cursor < count) {
+            cursor++;
+        }
+        return index;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int intValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * 标识符在驻留表中的编号
+     */
+    public int nameId(int index) {
+        return values[index];
+    }
+
+    public String stringValue(int index) {
+        if (type(index) == TokenType.IDENT) {
+            return names.name(values[index]);
+        }
+        return (String) literals[values[index]];
+    }
+
+    public NameTable getNames() {
+        return names;
+    }
+
+    /**
+     * 和 Token.getValue() 一致的值，只在报错或输出时使用
+     */
+    public Object value(int index) {
+        TokenType tokenType = type(index);
+        switch (tokenType) {
+            case UINT_LITERAL:
+                return values[index];
+            case IDENT:
+                return names.name(values[index]);
+            case STRING_LITERAL:
+            case CHAR_LITERAL:
+            case DOUBLE_LITERAL:
+                return literals[values[index]];
+            case EOF:
+                return "";
+            default:
+                return tokenType.toString();
+        }
+    }
+
+    public int startOffset(int index) {
+        return startOffsets[index];
+    }
+
+    public int endOffset(int index) {
+        return endOffsets[index];
+    }
+
+    public Pos startPos(int index) {
+        return source.posOf(startOffsets[index]);
+    }
+
+    public Pos endPos(int index) {
+        return source.posOf(endOffsets[index]);
+    }
+
+    /**
+     * 为某个 token 创建 Token 对象，只在报错或输出时使用
+     */
+    public Token token(int index) {
+        return new Token(type(index), value(index), startOffsets[index], endOffsets[index], source);
+    }
+}
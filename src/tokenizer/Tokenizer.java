@@ -2,14 +2,34 @@ package tokenizer;
 
 import error.TokenizeError;
 import error.ErrorCode;
-import util.Pos;
 
 public class Tokenizer {
 
     private StringIter it;
 
+    private NameTable names;
+
+    // 最近一次 lex() 得到的 token 的值和起止偏移
+    private Object lastValue;
+    private int lastIntValue;
+    private int lastStartOffset;
+    private int lastEndOffset;
+
     public Tokenizer(StringIter it) {
+        this(it, new NameTable());
+    }
+
+    public Tokenizer(StringIter it, NameTable names) {
         this.it = it;
+        this.names = names;
+    }
+
+    public StringIter getStringIter() {
+        return it;
+    }
+
+    public NameTable getNames() {
+        return names;
     }
 
     // 这里本来是想实现 Iterator<Token> 的，但是 Iterator 不允许抛异常，于是就这样了
@@ -20,13 +40,31 @@ public class Tokenizer {
      * @throws TokenizeError 如果解析有异常则抛出
      */
     public Token nextToken() throws TokenizeError {
+        TokenType tokenType = lex();
+        Object value = lastValue;
+        if (tokenType == TokenType.UINT_LITERAL) {
+            value = lastIntValue;
+        } else if (tokenType == TokenType.IDENT || names.keyword(lastIntValue) == tokenType) {
+            value = names.name(lastIntValue);
+        }
+        return new Token(tokenType, value, lastStartOffset, lastEndOffset, it);
+    }
+
+    /**
+     * 解析下一个 token，但不创建 Token 对象
+     * 值和起止偏移通过 getLastValue() 等方法取得
+     *
+     * @return token 的类型
+     * @throws TokenizeError 如果解析有异常则抛出
+     */
+    public TokenType lex() throws TokenizeError {
         it.readAll();
 
         // 跳过之前的所有空白字符
         skipSpaceCharacters();
 
         if (it.isEOF()) {
-            return new Token(TokenType.EOF, "", it.currentPos(), it.currentPos());
+            return token(TokenType.EOF, "", it.currentOffset(), it.currentOffset());
         }
 
         char peek = it.peekChar();
@@ -47,8 +85,8 @@ public class Tokenizer {
         }
     }
 
-    private Token lexCharLitteral() throws TokenizeError {
-        Pos startPos = it.currentPos();
+    private TokenType lexCharLitteral() throws TokenizeError {
+        int startOffset = it.currentOffset();
         char[] charstr =new char[10];
         char[] finstr = new char[10];
         int i = 0;
@@ -99,13 +137,13 @@ public class Tokenizer {
             finstr[j++] = charstr[i];
         }
         String tmp = new String(finstr,0,j);
-        Token t = new Token(TokenType.CHAR_LITERAL, tmp, startPos, it.currentPos());
+        TokenType t = token(TokenType.CHAR_LITERAL, tmp, startOffset, it.currentOffset());
         it.nextChar();
         return t;
     }
 
-    private Token lexStringLitteral() throws TokenizeError{
-        Pos startPos = it.currentPos();
+    private TokenType lexStringLitteral() throws TokenizeError{
+        int startOffset = it.currentOffset();
         char[] charstr =new char[1000];
         char[] finstr = new char[1000];
         int i = 0;
@@ -154,12 +192,12 @@ public class Tokenizer {
             finstr[j++] = charstr[i];
         }
         String tmp = new String(finstr,0,j);
-        Token t = new Token(TokenType.STRING_LITERAL, tmp, startPos, it.currentPos());
+        TokenType t = token(TokenType.STRING_LITERAL, tmp, startOffset, it.currentOffset());
         it.nextChar();
         return t;
     }
 
-    private Token lexDigit() throws TokenizeError {
+    private TokenType lexDigit() throws TokenizeError {
         // 请填空：
         // 直到查看下一个字符不是数字为止:
         // -- 前进一个字符，并存储这个字符
@@ -168,7 +206,7 @@ public class Tokenizer {
         // 解析成功则返回无符号整数类型的token，否则返回编译错误
         //
         // Token 的 Value 应填写数字的值
-        Pos startPos = it.currentPos();
+        int startOffset = it.currentOffset();
         char[] numstr =new char[50];
         int i = 0;
         boolean isDouble = false;
@@ -190,16 +228,16 @@ public class Tokenizer {
         //System.out.println(tmp);
         if(isDouble){
             double numdouble = Double.parseDouble(tmp);
-            return new Token(TokenType.DOUBLE_LITERAL, numdouble, startPos, it.currentPos());
+            return token(TokenType.DOUBLE_LITERAL, numdouble, startOffset, it.currentOffset());
         }
         else{
             int numint = Integer.parseInt(tmp);
             //System.out.println("hhh");
-            return new Token(TokenType.UINT_LITERAL, numint, startPos, it.currentPos());
+            return intToken(TokenType.UINT_LITERAL, numint, startOffset, it.currentOffset());
         }
     }
 
-    private Token lexIdentOrKeyword() throws TokenizeError {
+    private TokenType lexIdentOrKeyword() throws TokenizeError {
         // 请填空：
         // 直到查看下一个字符不是数字或字母为止:
         // -- 前进一个字符，并存储这个字符
@@ -208,87 +246,58 @@ public class Tokenizer {
         // -- 如果是关键字，则返回关键字类型的 token
         // -- 否则，返回标识符
         //
-        // Token 的 Value 应填写标识符或关键字的字符串
-        int i = 0;
-        Pos startPos = it.currentPos();
-        char[] ident_or_keyword_str = new char[50];
+        // Token 的 Value 应填写标识符或关键字在驻留表中的编号
+        int startOffset = it.currentOffset();
         while (Character.isDigit(it.peekChar()) || Character.isLetter(it.peekChar()) || it.peekChar() == '_') {
-            ident_or_keyword_str[i] = it.nextChar();
-            i++;
+            it.nextChar();
         }
-        String tmp = new String(ident_or_keyword_str,0,i);
-        switch (tmp){
-            case "fn":
-                return new Token(TokenType.FN_KW, tmp, startPos, it.currentPos());
-
-            case "let":
-                return new Token(TokenType.LET_KW, tmp, startPos, it.currentPos());
-
-            case "const":
-                return new Token(TokenType.CONST_KW, tmp, startPos, it.currentPos());
-
-            case "as":
-                return new Token(TokenType.AS_KW, tmp, startPos, it.currentPos());
-
-            case "while":
-                return new Token(TokenType.WHILE_KW, tmp, startPos, it.currentPos());
-
-            case "if":
-                return new Token(TokenType.IF_KW, tmp, startPos, it.currentPos());
-
-            case "else":
-                return new Token(TokenType.ELSE_KW, tmp, startPos, it.currentPos());
-
-            case "return":
-                return new Token(TokenType.RETURN_KW, tmp, startPos, it.currentPos());
-
-            case "break":
-                return new Token(TokenType.BREAK_KW, tmp, startPos, it.currentPos());
-
-            case "continue":
-                return new Token(TokenType.CONTINUE_KW, tmp, startPos, it.currentPos());
+        // 在驻留表里查一次，关键字和标识符一起认出来
+        int id = names.intern(it, startOffset, it.currentOffset());
+        TokenType keyword = names.keyword(id);
+        if (keyword != null) {
+            return intToken(keyword, id, startOffset, it.currentOffset());
         }
-        return new Token(TokenType.IDENT, tmp, startPos, it.currentPos());
+        return intToken(TokenType.IDENT, id, startOffset, it.currentOffset());
     }
 
-    private Token lexOperatorOrUnknown() throws TokenizeError {
+    private TokenType lexOperatorOrUnknown() throws TokenizeError {
         switch (it.nextChar()) {
             case '+':
-                return new Token(TokenType.PLUS, '+', it.previousPos(), it.currentPos());
+                return token(TokenType.PLUS, '+', it.previousOffset(), it.currentOffset());
 
             case '-':
                 // 填入返回语句
                 if(it.peekChar() == '>'){//是箭头
                     it.nextChar();
-                    return new Token(TokenType.ARROW, "->", it.previousPos(), it.currentPos());
+                    return token(TokenType.ARROW, "->", it.previousOffset(), it.currentOffset());
                 }
-                return new Token(TokenType.MINUS, '-', it.previousPos(), it.currentPos());
+                return token(TokenType.MINUS, '-', it.previousOffset(), it.currentOffset());
 
             case '*':
                 // 填入返回语句
-                return new Token(TokenType.MUL, '*', it.previousPos(), it.currentPos());
+                return token(TokenType.MUL, '*', it.previousOffset(), it.currentOffset());
 
             case '/':
                 // 填入返回语句
                 if(it.peekChar() == '/'){//是双等于号
                     while(it.nextChar() != '\n');
-                    //return new Token(TokenType.COMMENT, "//", it.previousPos(), it.currentPos());
-                    return nextToken();
+                    //return token(TokenType.COMMENT, "//", it.previousOffset(), it.currentOffset());
+                    return lex();
                 }
-                return new Token(TokenType.DIV, '/', it.previousPos(), it.currentPos());
+                return token(TokenType.DIV, '/', it.previousOffset(), it.currentOffset());
 
             case '=':
                 // 填入返回语句
                 if(it.peekChar() == '='){//是双等于号
                     it.nextChar();
-                    return new Token(TokenType.EQ, "==", it.previousPos(), it.currentPos());
+                    return token(TokenType.EQ, "==", it.previousOffset(), it.currentOffset());
                 }
-                return new Token(TokenType.ASSIGN, '=', it.previousPos(), it.currentPos());
+                return token(TokenType.ASSIGN, '=', it.previousOffset(), it.currentOffset());
             case '!':
                 // 填入返回语句
                 if(it.peekChar() == '='){//是不等于号
                     it.nextChar();
-                    return new Token(TokenType.NEQ, "!=", it.previousPos(), it.currentPos());
+                    return token(TokenType.NEQ, "!=", it.previousOffset(), it.currentOffset());
                 }
                 else{
                     throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
@@ -297,38 +306,38 @@ public class Tokenizer {
                 // 填入返回语句
                 if(it.peekChar() == '='){//是双等于号
                     it.nextChar();
-                    return new Token(TokenType.LE, "<=", it.previousPos(), it.currentPos());
+                    return token(TokenType.LE, "<=", it.previousOffset(), it.currentOffset());
                 }
-                return new Token(TokenType.LT, '<', it.previousPos(), it.currentPos());
+                return token(TokenType.LT, '<', it.previousOffset(), it.currentOffset());
             case '>':
                 // 填入返回语句
                 if(it.peekChar() == '='){//是双等于号
                     it.nextChar();
-                    return new Token(TokenType.GE, ">=", it.previousPos(), it.currentPos());
+                    return token(TokenType.GE, ">=", it.previousOffset(), it.currentOffset());
                 }
-                return new Token(TokenType.GT, '>', it.previousPos(), it.currentPos());
+                return token(TokenType.GT, '>', it.previousOffset(), it.currentOffset());
             case '(':
                 // 填入返回语句
-                return new Token(TokenType.L_PAREN, '(', it.previousPos(), it.currentPos());
+                return token(TokenType.L_PAREN, '(', it.previousOffset(), it.currentOffset());
 
             case ')':
                 // 填入返回语句
-                return new Token(TokenType.R_PAREN, ')', it.previousPos(), it.currentPos());
+                return token(TokenType.R_PAREN, ')', it.previousOffset(), it.currentOffset());
             case '{':
                 // 填入返回语句
-                return new Token(TokenType.L_BRACE, '{', it.previousPos(), it.currentPos());
+                return token(TokenType.L_BRACE, '{', it.previousOffset(), it.currentOffset());
             case '}':
                 // 填入返回语句
-                return new Token(TokenType.R_BRACE, '}', it.previousPos(), it.currentPos());
+                return token(TokenType.R_BRACE, '}', it.previousOffset(), it.currentOffset());
             case ',':
                 // 填入返回语句
-                return new Token(TokenType.COMMA, ',', it.previousPos(), it.currentPos());
+                return token(TokenType.COMMA, ',', it.previousOffset(), it.currentOffset());
             case ':':
                 // 填入返回语句
-                return new Token(TokenType.COLON, ':', it.previousPos(), it.currentPos());
+                return token(TokenType.COLON, ':', it.previousOffset(), it.currentOffset());
             case ';':
                 // 填入返回语句
-                return new Token(TokenType.SEMICOLON, ';', it.previousPos(), it.currentPos());
+                return token(TokenType.SEMICOLON, ';', it.previousOffset(), it.currentOffset());
 
             default:
                 // 不认识这个输入，摸了
@@ -336,6 +345,34 @@ public class Tokenizer {
         }
     }
 
+    private TokenType token(TokenType tokenType, Object value, int startOffset, int endOffset) {
+        this.lastValue = value;
+        this.lastStartOffset = startOffset;
+        this.lastEndOffset = endOffset;
+        return tokenType;
+    }
+
+    private TokenType intToken(TokenType tokenType, int value, int startOffset, int endOffset) {
+        this.lastIntValue = value;
+        return token(tokenType, null, startOffset, endOffset);
+    }
+
+    public Object getLastValue() {
+        return lastValue;
+    }
+
+    public int getLastIntValue() {
+        return lastIntValue;
+    }
+
+    public int getLastStartOffset() {
+        return lastStartOffset;
+    }
+
+    public int getLastEndOffset() {
+        return lastEndOffset;
+    }
+
     private void skipSpaceCharacters() {
         while (!it.isEOF() && Character.isWhitespace(it.peekChar())) {
             it.nextChar();
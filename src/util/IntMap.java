@@ -0,0 +1,153 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * 以 int 为键的哈希表，按插入顺序保存条目
+ * 查找时不需要装箱，也不会对字符串重新求哈希
+ * 遍历方式：for (int i = 0; i < map.entryCount(); i++)，valueAt(i) 为 null 的条目已被删除
+ */
+public class IntMap<V> {
+    // 按插入顺序排列的条目
+    private int[] keys;
+    private Object[] values;
+    private int entryCount = 0;
+    private int removedCount = 0;
+
+    // 开放寻址的索引，存放 条目下标 + 1，0 表示空槽
+    private int[] slots;
+
+    public IntMap() {
+        this(8);
+    }
+
+    public IntMap(int expectedSize) {
+        int capacity = 8;
+        while (capacity < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new Object[capacity];
+        slots = new int[capacity * 2];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int entry = find(key);
+        return entry < 0 ? null : (V) values[entry];
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * 放入一个键值对，值不能为 null，已经存在（或删除后还没清理掉）的键保持原来的位置
+     */
+    public void put(int key, V value) {
+        int mask = slots.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (keys[entry] == key) {
+                if (values[entry] == null) {
+                    removedCount--;
+                }
+                values[entry] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = append(key, value) + 1;
+        if (entryCount * 2 > slots.length || removedCount * 2 > entryCount) {
+            rebuild(slots.length);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int entry = find(key);
+        if (entry < 0 || values[entry] == null) {
+            return null;
+        }
+        V old = (V) values[entry];
+        // 只做标记，遍历中删除也是安全的，等下次插入时再清理
+        values[entry] = null;
+        removedCount++;
+        return old;
+    }
+
+    public int size() {
+        return entryCount - removedCount;
+    }
+
+    public int entryCount() {
+        return entryCount;
+    }
+
+    public int keyAt(int i) {
+        return keys[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int i) {
+        return (V) values[i];
+    }
+
+    private int find(int key) {
+        int mask = slots.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (keys[entry] == key) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int append(int key, V value) {
+        if (entryCount == keys.length) {
+            keys = Arrays.copyOf(keys, entryCount * 2);
+            values = Arrays.copyOf(values, entryCount * 2);
+        }
+        keys[entryCount] = key;
+        values[entryCount] = value;
+        return entryCount++;
+    }
+
+    /**
+     * 去掉已删除的条目，重新建立索引
+     */
+    private void rebuild(int slotCount) {
+        int live = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (values[i] != null) {
+                keys[live] = keys[i];
+                values[live] = values[i];
+                live++;
+            }
+        }
+        Arrays.fill(values, live, entryCount, null);
+        entryCount = live;
+        removedCount = 0;
+        while (entryCount * 2 > slotCount) {
+            slotCount <<= 1;
+        }
+        slots = new int[slotCount];
+        int mask = slotCount - 1;
+        for (int i = 0; i < entryCount; i++) {
+            int slot = mix(keys[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}